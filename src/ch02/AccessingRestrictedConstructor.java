@@ -11,6 +11,7 @@ public class AccessingRestrictedConstructor {
     public static void main(String[] args) throws IOException {
         initConfiguration();
         WebServer server = new WebServer();
+        server.scanRoutes("ch02.web.handlers");
         server.start();
     }
 
@@ -1,12 +1,57 @@
 package ch02;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DiscoveringConstructors {
 
+    private static final ClassValue<Map<Signature, Optional<MethodHandle>>> INSTANTIATORS = new ClassValue<>() {
+        @Override
+        protected Map<Signature, Optional<MethodHandle>> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private static final MethodHandle WRAP_TARGET_EXCEPTION;
+    // (String, Object[])Object
+    private static final MethodHandle THROW_ILLEGAL_ARGUMENT;
+
+    static {
+        try {
+            WRAP_TARGET_EXCEPTION = MethodHandles.lookup().findStatic(DiscoveringConstructors.class, "wrapTargetException",
+                    MethodType.methodType(Object.class, Throwable.class));
+            THROW_ILLEGAL_ARGUMENT = MethodHandles.lookup().findStatic(DiscoveringConstructors.class, "throwIllegalArgument",
+                    MethodType.methodType(Object.class, String.class, Object[].class));
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    // Primitive types of the boxed types, and the primitive types every primitive type widens to, including itself
+    private static final Map<Class<?>, Class<?>> PRIMITIVE_TYPES = Map.of(
+            Boolean.class, boolean.class, Byte.class, byte.class, Short.class, short.class, Character.class, char.class,
+            Integer.class, int.class, Long.class, long.class, Float.class, float.class, Double.class, double.class);
+    private static final Map<Class<?>, Set<Class<?>>> WIDENINGS = Map.of(
+            boolean.class, Set.of(boolean.class),
+            byte.class, Set.of(byte.class, short.class, int.class, long.class, float.class, double.class),
+            short.class, Set.of(short.class, int.class, long.class, float.class, double.class),
+            char.class, Set.of(char.class, int.class, long.class, float.class, double.class),
+            int.class, Set.of(int.class, long.class, float.class, double.class),
+            long.class, Set.of(long.class, float.class, double.class),
+            float.class, Set.of(float.class, double.class),
+            double.class, Set.of(double.class));
+
     public static void main(String[] args) throws InvocationTargetException, InstantiationException, IllegalAccessException {
         printConstructorInfo(Person.class);
         System.out.println();
@@ -14,18 +59,35 @@ public class DiscoveringConstructors {
         Address address = createInstanceWithArguments(Address.class, "Street 123", "Neighbourhood 123");
         Person person = createInstanceWithArguments(Person.class, "Mike", 44, address);
         System.out.println(person);
+
+        // Resolved to Person(String, int) by argument types, the short is widened to int
+        System.out.println(createInstanceWithArguments(Person.class, "Anna", (short) 30));
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Creates an instance through the most specific constructor the arguments are applicable to, like the compiler
+     * resolves overloads. As in the phases of JLS 15.12.2, constructors whose reference parameters accept the arguments
+     * by subtyping alone are preferred. Only if there is none, a primitive parameter also accepts its boxed type and any
+     * boxed type that widens to it. A reference parameter accepts null.
+     * <p>
+     * The resolved constructor is cached as a method handle per class and argument types, so repeated calls with the
+     * same argument types do not look at the declared constructors again.
+     */
     public static <T> T createInstanceWithArguments(Class<T> clazz, Object... args) throws InvocationTargetException, InstantiationException, IllegalAccessException {
-        for (Constructor<?> constructor : clazz.getDeclaredConstructors()) {
-            if (constructor.getParameterCount() == args.length) {
-                return (T) constructor.newInstance(args);
-            }
+        Optional<MethodHandle> instantiator = instantiatorOf(clazz, Signature.of(args));
+        if (instantiator.isEmpty()) {
+            System.out.println("An appropriate constructor was not found");
+            return null;
         }
 
-        System.out.println("An appropriate constructor was not found");
-        return null;
+        try {
+            return clazz.cast(instantiator.get().invokeExact(args));
+        } catch (InvocationTargetException | RuntimeException | Error ex) {
+            // Exceptions of the constructor itself arrive wrapped, like from Constructor.newInstance
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException("Unexpected failure of the instantiator", ex);
+        }
     }
 
     public static void printConstructorInfo(Class<?> clazz) {
@@ -41,6 +103,175 @@ public class DiscoveringConstructors {
         }
     }
 
+    /**
+     * Returns a method handle of type {@code (Object[])Object} that calls the given constructor. The arguments are
+     * unboxed and widened to the parameter types, and exceptions of the constructor itself are thrown wrapped in an
+     * {@link InvocationTargetException}, like from {@link Constructor#newInstance}.
+     *
+     * @param lookup lookup with access to the constructor
+     */
+    public static MethodHandle instantiatorOf(MethodHandles.Lookup lookup, Constructor<?> constructor) throws IllegalAccessException {
+        int parameterCount = constructor.getParameterCount();
+        // Wraps only what the constructor itself throws, not failures of the argument conversions around it
+        MethodHandle wrapTargetException = MethodHandles.dropArguments(
+                WRAP_TARGET_EXCEPTION.asType(MethodType.methodType(constructor.getDeclaringClass(), Throwable.class)),
+                1, constructor.getParameterTypes());
+        return MethodHandles.catchException(lookup.unreflectConstructor(constructor), Throwable.class, wrapTargetException)
+                .asType(MethodType.genericMethodType(parameterCount))
+                .asSpreader(Object[].class, parameterCount);
+    }
+
+    /***** Helper Methods *****/
+
+    private static Optional<MethodHandle> instantiatorOf(Class<?> clazz, Signature signature) throws InstantiationException, IllegalAccessException {
+        Map<Signature, Optional<MethodHandle>> instantiators = INSTANTIATORS.get(clazz);
+        Optional<MethodHandle> instantiator = instantiators.get(signature);
+        if (instantiator != null) {
+            return instantiator;
+        }
+
+        if (Modifier.isAbstract(clazz.getModifiers())) {
+            throw new InstantiationException(clazz.getName() + " is abstract");
+        }
+
+        try {
+            Constructor<?> constructor = resolveConstructor(clazz, signature.types);
+            instantiator = constructor == null ? Optional.empty() : Optional.of(instantiatorOf(MethodHandles.lookup(), constructor));
+        } catch (IllegalArgumentException ex) {
+            // An ambiguous call is cached as a handle that throws, so repeating it does not scan the constructors again
+            instantiator = Optional.of(MethodHandles.insertArguments(THROW_ILLEGAL_ARGUMENT, 0, ex.getMessage()));
+        }
+
+        Optional<MethodHandle> existingInstantiator = instantiators.putIfAbsent(signature, instantiator);
+        return existingInstantiator != null ? existingInstantiator : instantiator;
+    }
+
+    /**
+     * Returns the most specific constructor that is applicable to arguments of the given types, where a null type
+     * stands for a null argument, or null if there is no applicable constructor
+     */
+    private static Constructor<?> resolveConstructor(Class<?> clazz, Class<?>[] argumentTypes) {
+        // Phase 1 of JLS 15.12.2 only allows subtyping, phase 2 also unboxing followed by widening
+        List<Constructor<?>> applicableConstructors = applicableConstructors(clazz, argumentTypes, false);
+        if (applicableConstructors.isEmpty()) {
+            applicableConstructors = applicableConstructors(clazz, argumentTypes, true);
+        }
+
+        List<Constructor<?>> mostSpecificConstructors = new ArrayList<>();
+        for (Constructor<?> candidate : applicableConstructors) {
+            boolean mostSpecific = true;
+            for (Constructor<?> other : applicableConstructors) {
+                if (other != candidate && !isSubtype(candidate.getParameterTypes(), other.getParameterTypes())) {
+                    mostSpecific = false;
+                    break;
+                }
+            }
+            if (mostSpecific) {
+                mostSpecificConstructors.add(candidate);
+            }
+        }
+
+        if (applicableConstructors.isEmpty()) {
+            return null;
+        } else if (mostSpecificConstructors.size() != 1) {
+            throw new IllegalArgumentException("Constructor call is ambiguous: " + applicableConstructors);
+        }
+        return mostSpecificConstructors.get(0);
+    }
+
+    private static List<Constructor<?>> applicableConstructors(Class<?> clazz, Class<?>[] argumentTypes, boolean allowUnboxing) {
+        List<Constructor<?>> applicableConstructors = new ArrayList<>();
+        for (Constructor<?> constructor : clazz.getDeclaredConstructors()) {
+            if (isApplicable(constructor.getParameterTypes(), argumentTypes, allowUnboxing)) {
+                applicableConstructors.add(constructor);
+            }
+        }
+        return applicableConstructors;
+    }
+
+    private static boolean isApplicable(Class<?>[] parameterTypes, Class<?>[] argumentTypes, boolean allowUnboxing) {
+        if (parameterTypes.length != argumentTypes.length) {
+            return false;
+        }
+        for (int i = 0; i < parameterTypes.length; i++) {
+            Class<?> argumentType = argumentTypes[i];
+            if (argumentType == null ? parameterTypes[i].isPrimitive()
+                    : !(allowUnboxing ? isConvertible(argumentType, parameterTypes[i]) : isSubtype(argumentType, parameterTypes[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSubtype(Class<?>[] types, Class<?>[] superTypes) {
+        for (int i = 0; i < types.length; i++) {
+            if (!isSubtype(types[i], superTypes[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether one type is a subtype of the other, where a primitive type is a subtype of the primitive types
+     * it widens to (JLS 4.10), but never of a reference type
+     */
+    private static boolean isSubtype(Class<?> type, Class<?> superType) {
+        if (type.isPrimitive() || superType.isPrimitive()) {
+            return type.isPrimitive() && WIDENINGS.get(type).contains(superType);
+        }
+        return superType.isAssignableFrom(type);
+    }
+
+    /**
+     * Returns whether a value of one type converts to the other by identity, widening or unboxing
+     */
+    private static boolean isConvertible(Class<?> fromType, Class<?> toType) {
+        if (toType.isPrimitive()) {
+            Class<?> primitiveType = fromType.isPrimitive() ? fromType : PRIMITIVE_TYPES.get(fromType);
+            return primitiveType != null && WIDENINGS.get(primitiveType).contains(toType);
+        }
+        return toType.isAssignableFrom(fromType);
+    }
+
+    private static Object wrapTargetException(Throwable ex) throws InvocationTargetException {
+        throw new InvocationTargetException(ex);
+    }
+
+    private static Object throwIllegalArgument(String message, Object[] args) {
+        throw new IllegalArgumentException(message);
+    }
+
+    /**
+     * Runtime types of the arguments of a call
+     */
+    private record Signature(Class<?>[] types) {
+
+        static Signature of(Object[] args) {
+            Class<?>[] types = new Class<?>[args.length];
+            for (int i = 0; i < args.length; i++) {
+                types[i] = args[i] == null ? null : args[i].getClass();
+            }
+            return new Signature(types);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Signature signature && Arrays.equals(types, signature.types);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(types);
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(types);
+        }
+
+    }
+
     static class Person {
         private final String name;
         private final int age;
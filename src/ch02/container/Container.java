@@ -0,0 +1,414 @@
+package ch02.container;
+
+import ch02.DiscoveringConstructors;
+import ch07.AnnotationDiscovery;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Container that creates components through their constructors and injects their dependencies.
+ * <p>
+ * A component is created with its single {@link Inject} constructor, or else with the constructor that has the most
+ * parameters of which every one is a registered component, where a tie is ambiguous. The whole dependency graph is
+ * resolved when the container is built, and a dependency cycle or an unsatisfied dependency fails the build before
+ * any component is created.
+ * <p>
+ * Components are registered one by one through the {@link Builder}, or by scanning packages for classes annotated
+ * with {@link Managed}. Components are created through the cached instantiators of {@link DiscoveringConstructors}.
+ * <p>
+ * Singletons are created eagerly when the container is built, each on its own virtual thread. A singleton waits
+ * only for the singletons it depends on, so independent branches of the dependency graph are created concurrently.
+ * Prototypes are created anew for every lookup and every injection.
+ */
+public class Container {
+
+    private final Map<Class<?>, Component> components;
+    private final Map<Class<?>, Object> singletons;
+
+    public static void main(String[] args) throws IOException {
+        Container container = Container.builder()
+                .scan("ch02.container")
+                .build();
+
+        RequestHandler handler = container.get(RequestHandler.class);
+        System.out.println(handler);
+        System.out.println(handler != container.get(RequestHandler.class));
+        System.out.println(handler.userRepository == container.get(UserRepository.class));
+    }
+
+    private Container(Map<Class<?>, Component> components, List<Component> creationOrder) {
+        this.components = components;
+        this.singletons = createSingletons(creationOrder);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the singleton of the given registered type, or a new instance if it is a prototype
+     */
+    public <T> T get(Class<T> type) {
+        Component component = components.get(type);
+        if (component == null) {
+            throw new IllegalArgumentException("Component is not registered: " + type.getName());
+        }
+        if (component.scope == Scope.SINGLETON) {
+            return type.cast(singletons.get(type));
+        }
+        return type.cast(create(component, singletons::get));
+    }
+
+    /***** Helper Methods *****/
+
+    /**
+     * Creates an instance of the component. Singleton dependencies are looked up, prototype dependencies are created.
+     */
+    private Object create(Component component, Function<Class<?>, Object> singletonLookup) {
+        Object[] arguments = new Object[component.dependencies.length];
+        for (int i = 0; i < arguments.length; i++) {
+            Component dependency = components.get(component.dependencies[i]);
+            arguments[i] = dependency.scope == Scope.SINGLETON
+                    ? singletonLookup.apply(dependency.type)
+                    : create(dependency, singletonLookup);
+        }
+
+        try {
+            return component.constructor.invokeExact(arguments);
+        } catch (InvocationTargetException ex) {
+            throw new IllegalStateException("Failed to create component " + component.type.getName(), ex.getCause());
+        } catch (Throwable ex) {
+            throw new IllegalStateException("Failed to create component " + component.type.getName(), ex);
+        }
+    }
+
+    /**
+     * Creates all singletons on virtual threads, each one as soon as the singletons it depends on exist
+     */
+    private Map<Class<?>, Object> createSingletons(List<Component> creationOrder) {
+        Map<Class<?>, CompletableFuture<Object>> futures = new HashMap<>();
+        for (Component component : creationOrder) {
+            if (component.scope == Scope.SINGLETON) {
+                futures.put(component.type, new CompletableFuture<>());
+            }
+        }
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Component component : creationOrder) {
+                CompletableFuture<Object> future = futures.get(component.type);
+                if (future == null) {
+                    continue;
+                }
+                executor.submit(() -> {
+                    try {
+                        // Blocks this virtual thread until the singleton dependencies are created
+                        future.complete(create(component, type -> futures.get(type).join()));
+                    } catch (Throwable ex) {
+                        future.completeExceptionally(ex);
+                    }
+                });
+            }
+        }
+
+        // In creation order, the first failure is the root cause of any later ones
+        Map<Class<?>, Object> instances = new HashMap<>();
+        for (Component component : creationOrder) {
+            CompletableFuture<Object> future = futures.get(component.type);
+            if (future == null) {
+                continue;
+            }
+            try {
+                instances.put(component.type, future.join());
+            } catch (CompletionException ex) {
+                throw ex.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(ex.getCause());
+            }
+        }
+        return instances;
+    }
+
+    /**
+     * Registered component and its resolved constructor
+     */
+    private static final class Component {
+
+        private final Class<?> type;
+        private final Class<?> implementation;
+        private final Scope scope;
+        private MethodHandle constructor;
+        // Registered types of the constructor parameters
+        private Class<?>[] dependencies;
+
+        private Component(Class<?> type, Class<?> implementation, Scope scope) {
+            this.type = type;
+            this.implementation = implementation;
+            this.scope = scope;
+        }
+
+    }
+
+    public static class Builder {
+
+        private final Map<Class<?>, Component> components = new LinkedHashMap<>();
+
+        private Builder() {}
+
+        public Builder singleton(Class<?> type) {
+            return register(type, type, Scope.SINGLETON);
+        }
+
+        public <T> Builder singleton(Class<T> type, Class<? extends T> implementation) {
+            return register(type, implementation, Scope.SINGLETON);
+        }
+
+        public Builder prototype(Class<?> type) {
+            return register(type, type, Scope.PROTOTYPE);
+        }
+
+        public <T> Builder prototype(Class<T> type, Class<? extends T> implementation) {
+            return register(type, implementation, Scope.PROTOTYPE);
+        }
+
+        /**
+         * Registers every class of the given packages that is annotated with {@link Managed}, in the scope of its annotation
+         */
+        public Builder scan(String... packageNames) throws IOException {
+            try {
+                for (Class<?> type : AnnotationDiscovery.getAllClasses(packageNames)) {
+                    Managed managed = type.getAnnotation(Managed.class);
+                    if (managed != null) {
+                        register(type, type, managed.value());
+                    }
+                }
+            } catch (URISyntaxException ex) {
+                throw new IOException(ex);
+            }
+            return this;
+        }
+
+        /**
+         * Resolves the dependency graph and creates all singletons
+         *
+         * @throws IllegalStateException if a dependency is not registered, is ambiguous or part of a cycle,
+         *                               or if a singleton failed to be created
+         */
+        public Container build() {
+            for (Component component : components.values()) {
+                resolveConstructor(component);
+            }
+
+            List<Component> creationOrder = new ArrayList<>();
+            Map<Component, Boolean> visited = new HashMap<>();
+            for (Component component : components.values()) {
+                sortDependenciesFirst(component, visited, new ArrayList<>(), creationOrder);
+            }
+
+            return new Container(Collections.unmodifiableMap(new LinkedHashMap<>(components)), creationOrder);
+        }
+
+        /***** Helper Methods *****/
+
+        private Builder register(Class<?> type, Class<?> implementation, Scope scope) {
+            if (implementation.isInterface() || Modifier.isAbstract(implementation.getModifiers())) {
+                throw new IllegalArgumentException("Component implementation is not a concrete class: " + implementation.getName());
+            }
+            if (components.putIfAbsent(type, new Component(type, implementation, scope)) != null) {
+                throw new IllegalArgumentException("Component is already registered: " + type.getName());
+            }
+            return this;
+        }
+
+        private void resolveConstructor(Component component) {
+            Constructor<?> selectedConstructor = null;
+            for (Constructor<?> constructor : component.implementation.getDeclaredConstructors()) {
+                if (constructor.isAnnotationPresent(Inject.class)) {
+                    if (selectedConstructor != null) {
+                        throw new IllegalStateException("More than one @Inject constructor: " + selectedConstructor + " and " + constructor);
+                    }
+                    selectedConstructor = constructor;
+                }
+            }
+
+            // Without @Inject, the constructor with the most parameters of which every one is satisfied unambiguously
+            if (selectedConstructor == null) {
+                // The declared constructors come in no particular order, so a tie is only known after all of them
+                Constructor<?> tiedConstructor = null;
+                for (Constructor<?> constructor : component.implementation.getDeclaredConstructors()) {
+                    if (!isSatisfiable(constructor)) {
+                        continue;
+                    }
+                    if (selectedConstructor == null || constructor.getParameterCount() > selectedConstructor.getParameterCount()) {
+                        selectedConstructor = constructor;
+                        tiedConstructor = null;
+                    } else if (constructor.getParameterCount() == selectedConstructor.getParameterCount()) {
+                        tiedConstructor = constructor;
+                    }
+                }
+                if (selectedConstructor == null) {
+                    throw new IllegalStateException("No constructor of " + component.implementation.getName() + " has only registered dependencies");
+                } else if (tiedConstructor != null) {
+                    throw new IllegalStateException(String.format("Constructor of %s is ambiguous: %s or %s",
+                            component.implementation.getName(), selectedConstructor, tiedConstructor));
+                }
+            }
+
+            Class<?>[] dependencies = resolveDependencies(selectedConstructor);
+            try {
+                component.constructor = DiscoveringConstructors.instantiatorOf(
+                        MethodHandles.privateLookupIn(component.implementation, MethodHandles.lookup()), selectedConstructor);
+            } catch (IllegalAccessException ex) {
+                throw new IllegalStateException("Constructor is not accessible: " + selectedConstructor, ex);
+            }
+            component.dependencies = dependencies;
+        }
+
+        /**
+         * Returns whether every constructor parameter has exactly one registered component it can be injected from.
+         * An ambiguous parameter only fails the build if the constructor is annotated with {@link Inject}.
+         */
+        private boolean isSatisfiable(Constructor<?> constructor) {
+            for (Class<?> parameterType : constructor.getParameterTypes()) {
+                if (candidatesOf(parameterType).size() != 1) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the registered types the parameters of the selected constructor are injected from
+         *
+         * @throws IllegalStateException if a parameter has no registered component, or more than one
+         */
+        private Class<?>[] resolveDependencies(Constructor<?> constructor) {
+            Class<?>[] parameterTypes = constructor.getParameterTypes();
+            Class<?>[] dependencies = new Class<?>[parameterTypes.length];
+            for (int i = 0; i < parameterTypes.length; i++) {
+                List<Class<?>> candidates = candidatesOf(parameterTypes[i]);
+                if (candidates.isEmpty()) {
+                    throw new IllegalStateException("Unsatisfied dependencies of " + constructor + ", registered: " + components.keySet());
+                } else if (candidates.size() > 1) {
+                    throw new IllegalStateException(String.format("Dependency of type %s of %s is ambiguous: %s",
+                            parameterTypes[i].getName(), constructor, candidates.stream().map(Class::getName).toList()));
+                }
+                dependencies[i] = candidates.get(0);
+            }
+            return dependencies;
+        }
+
+        /**
+         * Returns the parameter type if it is registered, otherwise every registered component that is a subtype of it
+         */
+        private List<Class<?>> candidatesOf(Class<?> parameterType) {
+            if (components.containsKey(parameterType)) {
+                return List.of(parameterType);
+            }
+
+            List<Class<?>> candidates = new ArrayList<>();
+            for (Component component : components.values()) {
+                if (parameterType.isAssignableFrom(component.implementation)) {
+                    candidates.add(component.type);
+                }
+            }
+            return candidates;
+        }
+
+        /**
+         * Appends the component after all of its dependencies, failing on a dependency cycle
+         *
+         * @param visited false for components whose dependencies are being visited, true for finished ones
+         */
+        private void sortDependenciesFirst(Component component, Map<Component, Boolean> visited, List<Class<?>> path, List<Component> order) {
+            Boolean finished = visited.get(component);
+            if (Boolean.TRUE.equals(finished)) {
+                return;
+            }
+
+            path.add(component.type);
+            if (Boolean.FALSE.equals(finished)) {
+                List<Class<?>> cycle = path.subList(path.indexOf(component.type), path.size());
+                throw new IllegalStateException("Dependency cycle: " + Arrays.toString(cycle.stream().map(Class::getSimpleName).toArray()));
+            }
+
+            visited.put(component, false);
+            for (Class<?> dependency : component.dependencies) {
+                sortDependenciesFirst(components.get(dependency), visited, path, order);
+            }
+            visited.put(component, true);
+            path.remove(path.size() - 1);
+            order.add(component);
+        }
+
+    }
+
+    @Managed
+    static class Database {
+        Database() throws InterruptedException {
+            // Simulates opening connections, runs concurrently with the message queue
+            Thread.sleep(200);
+        }
+    }
+
+    @Managed
+    static class MessageQueue {
+        MessageQueue() throws InterruptedException {
+            Thread.sleep(200);
+        }
+    }
+
+    @Managed
+    static class UserRepository {
+        private final Database database;
+
+        UserRepository(Database database) {
+            this.database = database;
+        }
+    }
+
+    @Managed
+    static class NotificationService {
+        private final MessageQueue messageQueue;
+
+        NotificationService(MessageQueue messageQueue) {
+            this.messageQueue = messageQueue;
+        }
+    }
+
+    @Managed(Scope.PROTOTYPE)
+    static class RequestHandler {
+        private final UserRepository userRepository;
+        private final NotificationService notificationService;
+
+        RequestHandler() {
+            this(null, null);
+        }
+
+        RequestHandler(UserRepository userRepository, NotificationService notificationService) {
+            this.userRepository = userRepository;
+            this.notificationService = notificationService;
+        }
+
+        @Override
+        public String toString() {
+            return "RequestHandler{userRepository=" + userRepository + ", notificationService=" + notificationService + '}';
+        }
+    }
+
+}
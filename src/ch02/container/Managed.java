@@ -0,0 +1,17 @@
+package ch02.container;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class the {@link Container} registers as a component of the given scope when it scans its package
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Managed {
+
+    Scope value() default Scope.SINGLETON;
+
+}
@@ -0,0 +1,11 @@
+package ch02.container;
+
+/**
+ * Lifetime of the instances of a component
+ */
+public enum Scope {
+    // A single instance, created when the container is built
+    SINGLETON,
+    // A new instance on every lookup and for every component it is injected into
+    PROTOTYPE
+}
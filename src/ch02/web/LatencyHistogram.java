@@ -0,0 +1,101 @@
+package ch02.web;
+
+/**
+ * Histogram of latencies in nanoseconds, with a relative precision of better than 1%.
+ * <p>
+ * Values below 256 ns have a bucket each. Larger values are bucketed by their highest set bit and the 7 bits
+ * below it, so every power of two range is split into 128 buckets, in the spirit of an HdrHistogram. Recording
+ * is a single array increment, and histograms of several threads are merged with {@link #add}.
+ * <p>
+ * {@link #recordValueWithExpectedInterval} corrects for coordinated omission: a stalled request hides all
+ * the requests that would have been sent meanwhile, so their latencies are recorded as well.
+ */
+final class LatencyHistogram {
+
+    private static final int LINEAR_BUCKETS = 256;
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long maxValue;
+
+    void recordValue(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Latency must not be negative: " + value);
+        }
+        counts[bucketOf(value)]++;
+        totalCount++;
+        maxValue = Math.max(maxValue, value);
+    }
+
+    /**
+     * Records the value and, if it exceeds the expected interval between requests, the latencies of the requests
+     * that were delayed behind it: the value minus one interval, minus two intervals and so on
+     */
+    void recordValueWithExpectedInterval(long value, long expectedInterval) {
+        recordValue(value);
+        if (expectedInterval <= 0) {
+            return;
+        }
+        for (long missedValue = value - expectedInterval; missedValue >= expectedInterval; missedValue -= expectedInterval) {
+            recordValue(missedValue);
+        }
+    }
+
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        maxValue = Math.max(maxValue, other.maxValue);
+    }
+
+    long totalCount() {
+        return totalCount;
+    }
+
+    long maxValue() {
+        return maxValue;
+    }
+
+    /**
+     * Returns the value below which the given percentage of all recorded values lie
+     */
+    long valueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long targetCount = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += counts[i];
+            if (count >= targetCount) {
+                return Math.min(highestValueOf(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    /***** Helper Methods *****/
+
+    private static int bucketOf(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValueOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+}
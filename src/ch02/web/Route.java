@@ -0,0 +1,21 @@
+package ch02.web;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method that handles the requests to a path. The method returns the response: a String is sent
+ * as plain text, null or void as an empty response and any other object as JSON. If the method takes the
+ * {@link com.sun.net.httpserver.HttpExchange} and sends its own response, the result is ignored.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Route {
+
+    String path();
+
+    String method() default "GET";
+
+}
@@ -0,0 +1,362 @@
+package ch02.web;
+
+import ch03.JsonSerializer;
+import ch07.AnnotationDiscovery;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Dispatches requests to the {@link Route} methods of handler classes.
+ * <p>
+ * Handler classes are found by scanning packages for classes with route methods. Every route method is bound
+ * to its handler instance as a {@link MethodHandle} once, together with a plan that converts the query parameters
+ * into its arguments. Reflection only runs while the dispatcher is built, never while a request is handled.
+ * <p>
+ * Results other than strings are streamed as JSON straight into the response body through {@link JsonSerializer}.
+ * The declared result type of every route is checked to be serializable when it is bound, and the runtime type
+ * of a result before the response headers are sent, so a result that cannot be serialized still gets a 500.
+ */
+public class RouteDispatcher implements HttpHandler {
+
+    private static final Map<Class<?>, Function<String, Object>> CONVERTERS = Map.ofEntries(
+            Map.entry(String.class, value -> value),
+            Map.entry(int.class, Integer::valueOf),
+            Map.entry(Integer.class, Integer::valueOf),
+            Map.entry(long.class, Long::valueOf),
+            Map.entry(Long.class, Long::valueOf),
+            Map.entry(double.class, Double::valueOf),
+            Map.entry(Double.class, Double::valueOf),
+            Map.entry(boolean.class, RouteDispatcher::parseBoolean),
+            Map.entry(Boolean.class, RouteDispatcher::parseBoolean));
+
+    private final JsonSerializer jsonSerializer = JsonSerializer.builder().compact(true).build();
+    // Bound routes by path and HTTP method
+    private final Map<String, Map<String, BoundRoute>> routes;
+
+    private RouteDispatcher(Map<String, Map<String, BoundRoute>> routes) {
+        this.routes = routes;
+    }
+
+    /**
+     * Builds a dispatcher for the route methods of all classes in the given packages. Handler classes need a
+     * no-arg constructor, unless all of their route methods are static.
+     */
+    public static RouteDispatcher scan(String... packageNames) throws IOException {
+        List<Object> handlers = new ArrayList<>();
+        try {
+            for (Class<?> handlerClass : AnnotationDiscovery.getAllClasses(packageNames)) {
+                if (hasRoutes(handlerClass)) {
+                    handlers.add(handlerClass);
+                }
+            }
+        } catch (URISyntaxException ex) {
+            throw new IOException(ex);
+        }
+        return of(handlers.toArray());
+    }
+
+    /**
+     * Builds a dispatcher for the route methods of the given handler instances, or of the given handler classes
+     */
+    public static RouteDispatcher of(Object... handlers) {
+        Map<String, Map<String, BoundRoute>> routes = new LinkedHashMap<>();
+        for (Object handler : handlers) {
+            Class<?> handlerClass = handler instanceof Class<?> type ? type : handler.getClass();
+            Object handlerInstance = handler instanceof Class<?> type ? null : handler;
+
+            for (Method method : handlerClass.getDeclaredMethods()) {
+                Route route = method.getAnnotation(Route.class);
+                if (route == null) {
+                    continue;
+                }
+                if (handlerInstance == null && !Modifier.isStatic(method.getModifiers())) {
+                    handlerInstance = createHandler(handlerClass);
+                }
+
+                BoundRoute boundRoute = bind(route, method, handlerInstance);
+                Map<String, BoundRoute> routesByMethod = routes.computeIfAbsent(route.path(), path -> new LinkedHashMap<>());
+                if (routesByMethod.putIfAbsent(route.method(), boundRoute) != null) {
+                    throw new IllegalStateException("Route is declared twice: " + route.method() + " " + route.path());
+                }
+            }
+        }
+        return new RouteDispatcher(routes);
+    }
+
+    /**
+     * Returns the paths of all routes, which the dispatcher has to be registered for
+     */
+    public Set<String> paths() {
+        return Collections.unmodifiableSet(routes.keySet());
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            // An unread request body would force the connection to be closed
+            try (InputStream requestBody = exchange.getRequestBody()) {
+                requestBody.transferTo(OutputStream.nullOutputStream());
+            }
+
+            URI requestUri = exchange.getRequestURI();
+            Map<String, BoundRoute> routesByMethod = routes.get(requestUri.getPath());
+            if (routesByMethod == null) {
+                sendText(exchange, 404, "No route for " + requestUri.getPath());
+                return;
+            }
+            BoundRoute route = routesByMethod.get(exchange.getRequestMethod());
+            if (route == null) {
+                exchange.getResponseHeaders().set("Allow", String.join(", ", routesByMethod.keySet()));
+                sendText(exchange, 405, "Method not allowed: " + exchange.getRequestMethod());
+                return;
+            }
+
+            Object[] arguments;
+            try {
+                arguments = route.bindArguments(exchange, parseQuery(requestUri.getRawQuery()));
+            } catch (IllegalArgumentException ex) {
+                sendText(exchange, 400, ex.getMessage());
+                return;
+            }
+
+            Object result;
+            try {
+                result = route.handler.invokeExact(arguments);
+            } catch (Throwable ex) {
+                // The exception may reveal internals, so it is only logged
+                System.err.println("Route " + route.name + " failed: " + ex);
+                if (exchange.getResponseCode() == -1) {
+                    sendText(exchange, 500, "Route failed: " + route.name);
+                }
+                return;
+            }
+            // A route that takes the exchange may have sent its own response
+            if (exchange.getResponseCode() == -1) {
+                sendResult(exchange, route, result);
+            }
+        }
+    }
+
+    /***** Helper Methods *****/
+
+    private static boolean hasRoutes(Class<?> handlerClass) {
+        for (Method method : handlerClass.getDeclaredMethods()) {
+            if (method.isAnnotationPresent(Route.class)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Object createHandler(Class<?> handlerClass) {
+        try {
+            return MethodHandles.privateLookupIn(handlerClass, MethodHandles.lookup())
+                    .findConstructor(handlerClass, MethodType.methodType(void.class))
+                    .invoke();
+        } catch (Throwable ex) {
+            throw new IllegalStateException("Failed to create handler " + handlerClass.getName() + ", it needs a no-arg constructor", ex);
+        }
+    }
+
+    /**
+     * Binds the route method to its handler and plans the conversion of every parameter
+     */
+    private static BoundRoute bind(Route route, Method method, Object handlerInstance) {
+        Parameter[] parameters = method.getParameters();
+        ParameterBinding[] bindings = new ParameterBinding[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            bindings[i] = bindParameter(method, parameters[i]);
+        }
+
+        try {
+            MethodHandle handler = MethodHandles.privateLookupIn(method.getDeclaringClass(), MethodHandles.lookup()).unreflect(method);
+            if (!Modifier.isStatic(method.getModifiers())) {
+                handler = handler.bindTo(handlerInstance);
+            }
+            // Void methods return null, all arguments are passed as a single array
+            handler = handler.asType(MethodType.genericMethodType(parameters.length))
+                    .asSpreader(Object[].class, parameters.length);
+            requireSerializableResult(method);
+            return new BoundRoute(route.method() + " " + route.path(), handler, bindings);
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException("Route method is not accessible: " + method, ex);
+        }
+    }
+
+    private static void requireSerializableResult(Method method) {
+        Class<?> resultType = method.getReturnType();
+        if (resultType == void.class || resultType == String.class) {
+            return;
+        }
+        try {
+            JsonSerializer.requireSerializable(resultType);
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalStateException("Result of route method cannot be serialized as JSON: " + method, ex);
+        }
+    }
+
+    private static ParameterBinding bindParameter(Method method, Parameter parameter) {
+        Class<?> type = parameter.getType();
+        if (type == HttpExchange.class) {
+            return new ParameterBinding(null, false, null);
+        }
+
+        QueryParam queryParam = parameter.getAnnotation(QueryParam.class);
+        if (queryParam == null) {
+            throw new IllegalStateException("Parameter " + parameter.getName() + " of " + method + " has no @QueryParam annotation");
+        }
+
+        Function<String, Object> converter = CONVERTERS.get(type);
+        if (converter == null && type.isEnum()) {
+            Map<String, Object> constantsByName = new HashMap<>();
+            for (Object constant : type.getEnumConstants()) {
+                constantsByName.put(((Enum<?>) constant).name(), constant);
+            }
+            converter = name -> {
+                Object constant = constantsByName.get(name);
+                if (constant == null) {
+                    throw new IllegalArgumentException(name + " is not one of " + constantsByName.keySet());
+                }
+                return constant;
+            };
+        }
+        if (converter == null) {
+            throw new IllegalStateException("Query parameter type is not supported: " + type.getName() + " in " + method);
+        }
+        return new ParameterBinding(queryParam.value(), type.isPrimitive(), converter);
+    }
+
+    /**
+     * Unlike {@link Boolean#parseBoolean}, rejects anything other than true or false instead of reading it as false
+     */
+    private static Boolean parseBoolean(String value) {
+        if (value.equals("true")) {
+            return Boolean.TRUE;
+        } else if (value.equals("false")) {
+            return Boolean.FALSE;
+        }
+        throw new IllegalArgumentException(value + " is not true or false");
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return Map.of();
+        }
+
+        Map<String, String> queryParameters = new HashMap<>();
+        for (String pair : rawQuery.split("&")) {
+            int separator = pair.indexOf('=');
+            String name = separator < 0 ? pair : pair.substring(0, separator);
+            String value = separator < 0 ? "" : pair.substring(separator + 1);
+            // The first occurrence of a repeated parameter wins
+            queryParameters.putIfAbsent(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return queryParameters;
+    }
+
+    private void sendResult(HttpExchange exchange, BoundRoute route, Object result) throws IOException {
+        if (result == null) {
+            exchange.sendResponseHeaders(204, -1);
+        } else if (result instanceof String text) {
+            sendText(exchange, 200, text);
+        } else {
+            // The result may be a subtype of the declared type, so its plans are resolved while a 500 can still be sent
+            try {
+                JsonSerializer.requireSerializable(result.getClass());
+            } catch (IllegalArgumentException ex) {
+                System.err.println("Result of route " + route.name + " cannot be serialized: " + ex);
+                sendText(exchange, 500, "Route failed: " + route.name);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            // Length 0 streams the body in chunks, so the JSON is never buffered as a whole
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                jsonSerializer.objectToJson(result, responseBody);
+            }
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int statusCode, String text) throws IOException {
+        byte[] responseBytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(statusCode, responseBytes.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(responseBytes);
+        }
+    }
+
+    /**
+     * Route method bound to its handler instance, with the plan to bind its arguments
+     */
+    private static final class BoundRoute {
+
+        private final String name;
+        // (Object[]) -> Object
+        private final MethodHandle handler;
+        private final ParameterBinding[] parameterBindings;
+
+        private BoundRoute(String name, MethodHandle handler, ParameterBinding[] parameterBindings) {
+            this.name = name;
+            this.handler = handler;
+            this.parameterBindings = parameterBindings;
+        }
+
+        /**
+         * @throws IllegalArgumentException if a query parameter is missing or cannot be converted
+         */
+        Object[] bindArguments(HttpExchange exchange, Map<String, String> queryParameters) {
+            Object[] arguments = new Object[parameterBindings.length];
+            for (int i = 0; i < arguments.length; i++) {
+                ParameterBinding binding = parameterBindings[i];
+                if (binding.queryName == null) {
+                    arguments[i] = exchange;
+                    continue;
+                }
+
+                String value = queryParameters.get(binding.queryName);
+                if (value == null) {
+                    if (binding.required) {
+                        throw new IllegalArgumentException("Missing query parameter " + binding.queryName + " of " + name);
+                    }
+                    continue;
+                }
+                try {
+                    arguments[i] = binding.converter.apply(value);
+                } catch (IllegalArgumentException ex) {
+                    throw new IllegalArgumentException("Invalid query parameter " + binding.queryName + ": " + ex.getMessage(), ex);
+                }
+            }
+            return arguments;
+        }
+
+    }
+
+    /**
+     * Source of a single argument: the exchange itself if the query name is null, otherwise a query parameter
+     */
+    private record ParameterBinding(String queryName, boolean required, Function<String, Object> converter) {}
+
+}
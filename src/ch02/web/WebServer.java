@@ -1,29 +1,148 @@
 package ch02.web;
 
 import ch02.ServerConfiguration;
+import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/**
+ * Web server that greets with the message of the current {@link ServerConfiguration}.
+ * <p>
+ * By default, every request is handled on its own virtual thread instead of the single dispatcher thread
+ * of the {@link HttpServer}. The greeting is encoded to UTF-8 once per configuration instance, not per request.
+ * Request bodies are drained and responses carry their exact length, so connections are kept alive.
+ * <p>
+ * Further endpoints are added as {@link Route} methods of handler classes, through a {@link RouteDispatcher}.
+ * <p>
+ * The {@link HttpServer} writes headers and body separately, so with Nagle's algorithm every keep-alive response
+ * waits for the delayed ACK of the client. Launch with {@code -Dsun.net.httpserver.nodelay=true} to avoid that.
+ */
 public class WebServer {
 
+    // Lets the operating system pick the backlog of pending connections
+    private static final int DEFAULT_BACKLOG = 0;
+
+    private final boolean virtualThreads;
+    private final int backlog;
+    private final List<RouteDispatcher> routeDispatchers = new ArrayList<>();
+    private volatile GreetingResponse greetingResponse;
+    private HttpServer httpServer;
+    private ExecutorService executor;
+
+    public WebServer() {
+        this(true, DEFAULT_BACKLOG);
+    }
+
+    /**
+     * @param virtualThreads whether requests are handled on a virtual thread each, rather than on the dispatcher thread
+     * @param backlog        maximum number of pending connections, or 0 for the system default
+     */
+    public WebServer(boolean virtualThreads, int backlog) {
+        if (backlog < 0) {
+            throw new IllegalArgumentException("Backlog must not be negative");
+        }
+        this.virtualThreads = virtualThreads;
+        this.backlog = backlog;
+    }
+
+    /**
+     * Serves the routes of all handler classes in the given packages, once the server is started
+     */
+    public void scanRoutes(String... packageNames) throws IOException {
+        addRoutes(RouteDispatcher.scan(packageNames));
+    }
+
+    public void addRoutes(RouteDispatcher routeDispatcher) {
+        routeDispatchers.add(routeDispatcher);
+    }
+
     public void start() throws IOException {
-        HttpServer httpServer = HttpServer.create(ServerConfiguration.getInstance().getServerAddress(), 0);
-        httpServer.createContext("/greeting").setHandler(exchange -> {
-            String responseMessage = ServerConfiguration.getInstance().getGreetingMessage();
-            exchange.sendResponseHeaders(200, responseMessage.length());
-
-            OutputStream responseBody = exchange.getResponseBody();
-            responseBody.write(responseMessage.getBytes());
-            responseBody.flush();
-            responseBody.close();
-        });
-
-        InetSocketAddress serverAddress = ServerConfiguration.getInstance().getServerAddress();
-        System.out.printf("> Starting server ond address %s:%d\n", serverAddress.getHostName(), serverAddress.getPort());
+        httpServer = HttpServer.create(ServerConfiguration.getInstance().getServerAddress(), backlog);
+        if (virtualThreads) {
+            executor = Executors.newVirtualThreadPerTaskExecutor();
+            httpServer.setExecutor(executor);
+        }
+        httpServer.createContext("/greeting").setHandler(this::handleGreeting);
+        for (RouteDispatcher routeDispatcher : routeDispatchers) {
+            for (String path : routeDispatcher.paths()) {
+                httpServer.createContext(path, routeDispatcher);
+            }
+        }
+
         httpServer.start();
+        // The bound address, with the actual port if it was configured as 0
+        InetSocketAddress serverAddress = httpServer.getAddress();
+        System.out.printf("> Started server on address %s:%d\n", serverAddress.getHostName(), serverAddress.getPort());
     }
 
+    /**
+     * Returns the address the started server is bound to, with the actual port if it was configured as 0
+     */
+    public InetSocketAddress address() {
+        return httpServer.getAddress();
+    }
+
+    /**
+     * Stops the server, waiting up to the given number of seconds for running requests to finish.
+     * Does nothing if the server was never started.
+     */
+    public void stop(int delaySeconds) {
+        if (httpServer == null) {
+            return;
+        }
+        httpServer.stop(delaySeconds);
+        if (executor != null) {
+            executor.close();
+        }
+    }
+
+    /***** Helper Methods *****/
+
+    private void handleGreeting(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            // An unread request body would force the connection to be closed
+            try (InputStream requestBody = exchange.getRequestBody()) {
+                requestBody.transferTo(OutputStream.nullOutputStream());
+            }
+
+            byte[] responseBytes = greetingBytes();
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(responseBytes.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            exchange.sendResponseHeaders(200, responseBytes.length);
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                responseBody.write(responseBytes);
+            }
+        }
+    }
+
+    /**
+     * Returns the encoded greeting of the current configuration, encoding it only if the configuration changed
+     */
+    private byte[] greetingBytes() {
+        ServerConfiguration configuration = ServerConfiguration.getInstance();
+        GreetingResponse response = greetingResponse;
+        if (response == null || response.configuration != configuration) {
+            // Concurrent requests may encode the same greeting twice, which is harmless
+            response = new GreetingResponse(configuration, configuration.getGreetingMessage().getBytes(StandardCharsets.UTF_8));
+            greetingResponse = response;
+        }
+        return response.bytes;
+    }
+
+    private record GreetingResponse(ServerConfiguration configuration, byte[] bytes) {}
+
 }
@@ -0,0 +1,348 @@
+package ch02.web;
+
+import ch02.ServerConfiguration;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test of the {@link WebServer} on an ephemeral localhost port, without any network access.
+ * <p>
+ * Every client is a virtual thread with its own keep-alive connection, which sends one request at a time.
+ * <ul>
+ *   <li>Open loop: the clients send at a fixed total rate, and every latency is measured from the time the
+ *       request was due, not from when it was actually sent. A stalled server thus shows up in the latencies
+ *       of all requests that queued up behind the stall.</li>
+ *   <li>Closed loop: every client sends its next request as soon as it got a response. Latencies above the
+ *       mean latency of the warmup are corrected for coordinated omission by the {@link LatencyHistogram}.</li>
+ * </ul>
+ * Arguments are {@code key=value} pairs, e.g. {@code clients=64 duration=10 rate=20000 maxP99=5}. The process
+ * exits with status 1 if the throughput is below {@code minThroughput} or the p99 latency in milliseconds
+ * is above {@code maxP99} in any executor mode, so it can gate regressions.
+ */
+public class WebServerLoadTest {
+
+    private final int clients;
+    private final long durationNanos;
+    private final long warmupNanos;
+    // Total requests per second of the open loop, or 0 for a closed loop
+    private final double rate;
+    private final String path;
+
+    public static void main(String[] args) throws Exception {
+        // Keeps every keep-alive response from waiting for the delayed ACK of the client, see WebServer.
+        // Read once, when the first HttpServer is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        Map<String, String> options = parseOptions(args);
+        WebServerLoadTest loadTest = new WebServerLoadTest(
+                Integer.parseInt(options.getOrDefault("clients", "32")),
+                Double.parseDouble(options.getOrDefault("duration", "10")),
+                Double.parseDouble(options.getOrDefault("warmup", "2")),
+                Double.parseDouble(options.getOrDefault("rate", "0")),
+                options.getOrDefault("path", "/greeting"));
+        double minThroughput = Double.parseDouble(options.getOrDefault("minThroughput", "0"));
+        double maxP99Millis = Double.parseDouble(options.getOrDefault("maxP99", "Infinity"));
+
+        initConfiguration();
+        boolean passed = true;
+        for (boolean virtualThreads : new boolean[] {false, true}) {
+            Result result = loadTest.run(virtualThreads);
+            System.out.println(result);
+            passed &= result.throughput() >= minThroughput && result.p99Millis() <= maxP99Millis;
+        }
+
+        if (!passed) {
+            System.out.println("> Load test failed the throughput or latency limits");
+            System.exit(1);
+        }
+    }
+
+    public WebServerLoadTest(int clients, double durationSeconds, double warmupSeconds, double rate, String path) {
+        if (clients <= 0 || durationSeconds <= 0 || warmupSeconds < 0 || rate < 0) {
+            throw new IllegalArgumentException("Clients and duration must be positive, warmup and rate must not be negative");
+        }
+        this.clients = clients;
+        this.durationNanos = (long) (durationSeconds * 1e9);
+        this.warmupNanos = (long) (warmupSeconds * 1e9);
+        this.rate = rate;
+        this.path = path;
+    }
+
+    /**
+     * Starts a server in the given executor mode, warms it up, measures it and stops it again
+     */
+    public Result run(boolean virtualThreads) throws Exception {
+        WebServer server = new WebServer(virtualThreads, clients);
+        server.start();
+        try {
+            InetSocketAddress address = server.address();
+            Measurement warmup = measure(address, warmupNanos, 0);
+            // The mean latency of the warmup is the expected interval between closed loop requests
+            long expectedInterval = rate > 0 || warmup.histogram.totalCount() == 0
+                    ? 0
+                    : warmup.latencySum / warmup.histogram.totalCount();
+
+            Measurement measurement = measure(address, durationNanos, expectedInterval);
+            return new Result(virtualThreads ? "virtual threads" : "dispatcher thread", rate > 0 ? "open loop" : "closed loop",
+                    measurement.requests, measurement.errors, measurement.requests * 1e9 / durationNanos,
+                    millis(measurement.histogram.valueAtPercentile(50)),
+                    millis(measurement.histogram.valueAtPercentile(99)),
+                    millis(measurement.histogram.valueAtPercentile(99.9)),
+                    millis(measurement.histogram.maxValue()));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Throughput and latency of a single run, with latencies in milliseconds
+     */
+    public record Result(String executorMode, String loopMode, long requests, long errors, double throughput,
+                         double p50Millis, double p99Millis, double p999Millis, double maxMillis) {
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%-17s %-11s %,10d requests %,6d errors %,12.0f req/s   p50 %8.3f ms   p99 %8.3f ms   p99.9 %8.3f ms   max %8.3f ms",
+                    executorMode, loopMode, requests, errors, throughput, p50Millis, p99Millis, p999Millis, maxMillis);
+        }
+
+    }
+
+    /***** Helper Methods *****/
+
+    private static void initConfiguration() throws ReflectiveOperationException {
+        if (ServerConfiguration.getInstance() != null) {
+            return;
+        }
+        // Port 0 binds every server to a free ephemeral port
+        Constructor<ServerConfiguration> constructor = ServerConfiguration.class.getDeclaredConstructor(int.class, String.class);
+        constructor.setAccessible(true);
+        constructor.newInstance(0, "Welcome!");
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Argument is not of the form key=value: " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return options;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private Measurement measure(InetSocketAddress address, long runNanos, long expectedInterval) throws Exception {
+        long start = System.nanoTime() + 10_000_000L;
+        long end = start + runNanos;
+        byte[] request = ("GET " + path + " HTTP/1.1\r\nHost: localhost:" + address.getPort() + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+        List<Future<Measurement>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                int client = i;
+                futures.add(executor.submit(() -> runClient(address, request, client, start, end, expectedInterval)));
+            }
+        }
+
+        Measurement total = new Measurement();
+        for (Future<Measurement> future : futures) {
+            total.add(future.get());
+        }
+        return total;
+    }
+
+    private Measurement runClient(InetSocketAddress address, byte[] request, int client, long start, long end, long expectedInterval) {
+        Measurement measurement = new Measurement();
+        // In the open loop, the clients take turns, so requests are due at evenly spaced times
+        long interval = rate > 0 ? (long) (clients * 1e9 / rate) : 0;
+        long dueTime = start + (rate > 0 ? (long) (client * 1e9 / rate) : 0);
+
+        Connection connection = null;
+        while (true) {
+            long now = System.nanoTime();
+            if (rate > 0) {
+                if (dueTime >= end) {
+                    break;
+                }
+                if (now < dueTime) {
+                    LockSupport.parkNanos(dueTime - now);
+                }
+            } else {
+                if (now >= end) {
+                    break;
+                }
+                dueTime = Math.max(now, start);
+                if (now < start) {
+                    LockSupport.parkNanos(start - now);
+                }
+            }
+
+            try {
+                if (connection == null) {
+                    connection = new Connection(address);
+                }
+                connection.send(request);
+                long latency = System.nanoTime() - dueTime;
+                measurement.histogram.recordValueWithExpectedInterval(latency, expectedInterval);
+                measurement.latencySum += latency;
+                measurement.requests++;
+            } catch (IOException ex) {
+                measurement.errors++;
+                connection = close(connection);
+            }
+            dueTime += interval;
+        }
+
+        close(connection);
+        return measurement;
+    }
+
+    private static Connection close(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.socket.close();
+            } catch (IOException ex) {
+                // The connection is dropped anyway
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Latencies and counts of one client, or of all clients after merging
+     */
+    private static final class Measurement {
+
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private long latencySum;
+        private long requests;
+        private long errors;
+
+        private void add(Measurement other) {
+            histogram.add(other.histogram);
+            latencySum += other.latencySum;
+            requests += other.requests;
+            errors += other.errors;
+        }
+
+    }
+
+    /**
+     * Keep-alive HTTP/1.1 connection that sends a request and reads the whole response
+     */
+    private static final class Connection {
+
+        private final Socket socket;
+        private final OutputStream out;
+        private final InputStream in;
+
+        private Connection(InetSocketAddress address) throws IOException {
+            this.socket = new Socket(address.getAddress(), address.getPort());
+            socket.setTcpNoDelay(true);
+            this.out = socket.getOutputStream();
+            this.in = new BufferedInputStream(socket.getInputStream());
+        }
+
+        /**
+         * Sends the request and reads the response
+         *
+         * @throws IOException if the connection failed or the response is not a 2xx response
+         */
+        private void send(byte[] request) throws IOException {
+            out.write(request);
+            out.flush();
+
+            String statusLine = readLine();
+            if (statusLine.length() < 12 || statusLine.charAt(9) != '2') {
+                throw new IOException("Unexpected response: " + statusLine);
+            }
+
+            long contentLength = 0;
+            boolean chunked = false;
+            boolean closed = false;
+            for (String header = readLine(); !header.isEmpty(); header = readLine()) {
+                String lowerCaseHeader = header.toLowerCase(Locale.ROOT);
+                if (lowerCaseHeader.startsWith("content-length:")) {
+                    contentLength = Long.parseLong(header.substring("content-length:".length()).trim());
+                } else if (lowerCaseHeader.startsWith("transfer-encoding:") && lowerCaseHeader.contains("chunked")) {
+                    chunked = true;
+                } else if (lowerCaseHeader.startsWith("connection:") && lowerCaseHeader.contains("close")) {
+                    closed = true;
+                }
+            }
+
+            if (chunked) {
+                for (long chunkSize = readChunkSize(); chunkSize > 0; chunkSize = readChunkSize()) {
+                    skip(chunkSize);
+                    readLine();
+                }
+                readLine();
+            } else {
+                skip(contentLength);
+            }
+
+            if (closed) {
+                throw new IOException("Server closed the keep-alive connection");
+            }
+        }
+
+        private long readChunkSize() throws IOException {
+            String line = readLine();
+            int extension = line.indexOf(';');
+            return Long.parseLong(extension < 0 ? line.trim() : line.substring(0, extension).trim(), 16);
+        }
+
+        private void skip(long count) throws IOException {
+            while (count > 0) {
+                long skipped = in.skip(count);
+                if (skipped <= 0) {
+                    if (in.read() < 0) {
+                        throw new EOFException("Connection closed within the response body");
+                    }
+                    skipped = 1;
+                }
+                count -= skipped;
+            }
+        }
+
+        private String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+            for (int b = in.read(); b != '\n'; b = in.read()) {
+                if (b < 0) {
+                    throw new EOFException("Connection closed within the response");
+                }
+                if (b != '\r') {
+                    line.write(b);
+                }
+            }
+            return line.toString(StandardCharsets.ISO_8859_1);
+        }
+
+    }
+
+}
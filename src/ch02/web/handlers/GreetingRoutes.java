@@ -0,0 +1,22 @@
+package ch02.web.handlers;
+
+import ch02.ServerConfiguration;
+import ch02.web.QueryParam;
+import ch02.web.Route;
+
+public class GreetingRoutes {
+
+    public record Greeting(String message, String name, int times) {}
+
+    @Route(path = "/hello")
+    public Greeting hello(@QueryParam("name") String name, @QueryParam("times") Integer times) {
+        return new Greeting(ServerConfiguration.getInstance().getGreetingMessage(), name != null ? name : "anonymous",
+                times != null ? times : 1);
+    }
+
+    @Route(path = "/echo", method = "POST")
+    public String echo(@QueryParam("text") String text) {
+        return text;
+    }
+
+}
@@ -0,0 +1,518 @@
+package ch03;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.function.LongFunction;
+
+/**
+ * Primitive array views with long indexes, backed by a heap array, off-heap memory or a memory-mapped file.
+ * <p>
+ * Like {@link ReadingArrays}, a negative index counts from the end of the view, so {@code -1} is the last element.
+ * Elements are read and written through cached {@link VarHandle}s, never through {@link java.lang.reflect.Array}
+ * and without boxing. Slices share the memory of the view they were taken from.
+ * <p>
+ * Off-heap and mapped memory is split into chunks of 1 GiB, since a single buffer is limited to 2^31 bytes.
+ * The chunk size is a multiple of every element size, so no element spans two chunks. Elements are stored
+ * little-endian, so files written on one machine can be mapped on any other.
+ */
+public abstract class ArrayView {
+
+    static final int CHUNK_SHIFT = 30;
+    static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+    static final long CHUNK_MASK = CHUNK_SIZE - 1;
+    static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    final ByteBuffer[] chunks;
+    final long offset;
+    final long length;
+    private final int elementShift;
+
+    public static void main(String[] args) throws IOException {
+        OfInt heapView = OfInt.of(new int[] {1, 2, 3, 4, 5});
+        System.out.println(heapView.get(0) + " " + heapView.get(-1) + " " + heapView.slice(1, -1));
+
+        Path file = Files.createTempFile("samples", ".bin");
+        OfDouble mappedView = OfDouble.map(file, 1_000);
+        for (long i = 0; i < mappedView.length(); i++) {
+            mappedView.set(i, i * 0.5);
+        }
+        System.out.println(mappedView.get(-1) + " " + OfDouble.map(file, FileChannel.MapMode.READ_ONLY).slice(-3, mappedView.length()));
+        Files.delete(file);
+    }
+
+    ArrayView(ByteBuffer[] chunks, long offset, long length, int elementShift) {
+        this.chunks = chunks;
+        this.offset = offset;
+        this.length = length;
+        this.elementShift = elementShift;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /***** Helper Methods *****/
+
+    /**
+     * Returns the position of the element at the given index, which counts from the end if it is negative
+     */
+    final long elementAt(long index) {
+        long resolvedIndex = index < 0 ? index + length : index;
+        return offset + Objects.checkIndex(resolvedIndex, length);
+    }
+
+    /**
+     * Returns the position of the first of count elements starting at the given index
+     */
+    final long elementsAt(long index, int count) {
+        long resolvedIndex = index < 0 ? index + length : index;
+        return offset + Objects.checkFromIndexSize(resolvedIndex, count, length);
+    }
+
+    /**
+     * Resolves the bounds of a slice, where negative bounds count from the end and the end bound is exclusive
+     */
+    final long[] sliceBounds(long from, long to) {
+        long resolvedFrom = from < 0 ? from + length : from;
+        long resolvedTo = to < 0 ? to + length : to;
+        Objects.checkFromToIndex(resolvedFrom, resolvedTo, length);
+        return new long[] {offset + resolvedFrom, resolvedTo - resolvedFrom};
+    }
+
+    final ByteBuffer chunkOf(long element) {
+        return chunks[(int) ((element << elementShift) >>> CHUNK_SHIFT)];
+    }
+
+    final int positionOf(long element) {
+        return (int) ((element << elementShift) & CHUNK_MASK);
+    }
+
+    /**
+     * Returns how many of count elements starting at the given element lie in the same chunk
+     */
+    final int elementsInChunk(long element, int count) {
+        long remainingBytes = CHUNK_SIZE - ((element << elementShift) & CHUNK_MASK);
+        return (int) Math.min(count, remainingBytes >>> elementShift);
+    }
+
+    /**
+     * Returns a buffer over count elements starting at the given element, which all lie in the same chunk
+     */
+    final ByteBuffer region(long element, int count) {
+        return chunkOf(element).slice(positionOf(element), count << elementShift).order(BYTE_ORDER);
+    }
+
+    static ByteBuffer[] allocateChunks(long length, int elementShift) {
+        long size = checkedSize(checkLength(length), elementShift);
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount(size)];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = ByteBuffer.allocateDirect((int) Math.min(CHUNK_SIZE, size - i * CHUNK_SIZE));
+        }
+        return chunks;
+    }
+
+    static ByteBuffer[] mapChunks(Path file, FileChannel.MapMode mode, long length, int elementShift) throws IOException {
+        long size = checkedSize(length, elementShift);
+        StandardOpenOption[] options = mode == FileChannel.MapMode.READ_ONLY
+                ? new StandardOpenOption[] {StandardOpenOption.READ}
+                : new StandardOpenOption[] {StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE};
+
+        // Mappings stay valid after their channel is closed
+        try (FileChannel channel = FileChannel.open(file, options)) {
+            if (length < 0) {
+                size = channel.size() & -(1L << elementShift);
+            }
+            ByteBuffer[] chunks = new ByteBuffer[chunkCount(size)];
+            for (int i = 0; i < chunks.length; i++) {
+                long position = i * CHUNK_SIZE;
+                chunks[i] = channel.map(mode, position, Math.min(CHUNK_SIZE, size - position));
+            }
+            return chunks;
+        }
+    }
+
+    static long lengthOf(ByteBuffer[] chunks, int elementShift) {
+        long size = 0;
+        for (ByteBuffer chunk : chunks) {
+            size += chunk.capacity();
+        }
+        return size >>> elementShift;
+    }
+
+    static long checkLength(long length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Array view length must not be negative: " + length);
+        }
+        return length;
+    }
+
+    private static long checkedSize(long length, int elementShift) {
+        if (length > (Long.MAX_VALUE >>> elementShift)) {
+            throw new IllegalArgumentException("Array view is too large: " + length);
+        }
+        return length << elementShift;
+    }
+
+    private static int chunkCount(long size) {
+        return (int) ((size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+    }
+
+    String toString(long count, LongFunction<String> element) {
+        StringBuilder builder = new StringBuilder("[");
+        for (long i = 0; i < count; i++) {
+            builder.append(i == 0 ? "" : ", ").append(element.apply(i));
+        }
+        return builder.append(count < length ? ", ...]" : "]").toString();
+    }
+
+    /**
+     * View of int elements
+     */
+    public static final class OfInt extends ArrayView {
+
+        private static final VarHandle ARRAY_ELEMENT = MethodHandles.arrayElementVarHandle(int[].class);
+        private static final VarHandle BUFFER_ELEMENT = MethodHandles.byteBufferViewVarHandle(int[].class, BYTE_ORDER);
+        private static final int ELEMENT_SHIFT = 2;
+
+        private final int[] array;
+
+        private OfInt(int[] array, ByteBuffer[] chunks, long offset, long length) {
+            super(chunks, offset, length, ELEMENT_SHIFT);
+            this.array = array;
+        }
+
+        public static OfInt of(int[] array) {
+            return new OfInt(array, null, 0, array.length);
+        }
+
+        /**
+         * Allocates a zeroed off-heap view, which is limited by {@code -XX:MaxDirectMemorySize}
+         *
+         * @throws IllegalArgumentException if the length is negative
+         */
+        public static OfInt allocate(long length) {
+            return new OfInt(null, allocateChunks(length, ELEMENT_SHIFT), 0, length);
+        }
+
+        /**
+         * Maps the whole given file, ignoring trailing bytes that do not form a full element
+         */
+        public static OfInt map(Path file, FileChannel.MapMode mode) throws IOException {
+            ByteBuffer[] chunks = mapChunks(file, mode, -1, ELEMENT_SHIFT);
+            return new OfInt(null, chunks, 0, lengthOf(chunks, ELEMENT_SHIFT));
+        }
+
+        /**
+         * Maps the given file for reading and writing, creating or growing it to hold the given number of elements
+         */
+        public static OfInt map(Path file, long length) throws IOException {
+            return new OfInt(null, mapChunks(file, FileChannel.MapMode.READ_WRITE, checkLength(length), ELEMENT_SHIFT), 0, length);
+        }
+
+        public int get(long index) {
+            long element = elementAt(index);
+            if (array != null) {
+                return (int) ARRAY_ELEMENT.get(array, (int) element);
+            }
+            return (int) BUFFER_ELEMENT.get(chunkOf(element), positionOf(element));
+        }
+
+        public void set(long index, int value) {
+            long element = elementAt(index);
+            if (array != null) {
+                ARRAY_ELEMENT.set(array, (int) element, value);
+            } else {
+                BUFFER_ELEMENT.set(chunkOf(element), positionOf(element), value);
+            }
+        }
+
+        /**
+         * Copies count elements starting at the given index into the destination array
+         */
+        public void get(long index, int[] destination, int destinationOffset, int count) {
+            Objects.checkFromIndexSize(destinationOffset, count, destination.length);
+            long element = elementsAt(index, count);
+            if (array != null) {
+                System.arraycopy(array, (int) element, destination, destinationOffset, count);
+                return;
+            }
+            while (count > 0) {
+                int chunkCount = elementsInChunk(element, count);
+                region(element, chunkCount).asIntBuffer().get(destination, destinationOffset, chunkCount);
+                element += chunkCount;
+                destinationOffset += chunkCount;
+                count -= chunkCount;
+            }
+        }
+
+        /**
+         * Copies count elements of the source array into the view, starting at the given index
+         */
+        public void put(long index, int[] source, int sourceOffset, int count) {
+            Objects.checkFromIndexSize(sourceOffset, count, source.length);
+            long element = elementsAt(index, count);
+            if (array != null) {
+                System.arraycopy(source, sourceOffset, array, (int) element, count);
+                return;
+            }
+            while (count > 0) {
+                int chunkCount = elementsInChunk(element, count);
+                region(element, chunkCount).asIntBuffer().put(source, sourceOffset, chunkCount);
+                element += chunkCount;
+                sourceOffset += chunkCount;
+                count -= chunkCount;
+            }
+        }
+
+        /**
+         * Returns a view of the elements from the first index up to the exclusive second one, without copying them
+         */
+        public OfInt slice(long from, long to) {
+            long[] bounds = sliceBounds(from, to);
+            return new OfInt(array, chunks, bounds[0], bounds[1]);
+        }
+
+        @Override
+        public String toString() {
+            return toString(Math.min(length, 16), i -> String.valueOf(get(i)));
+        }
+
+    }
+
+    /**
+     * View of long elements
+     */
+    public static final class OfLong extends ArrayView {
+
+        private static final VarHandle ARRAY_ELEMENT = MethodHandles.arrayElementVarHandle(long[].class);
+        private static final VarHandle BUFFER_ELEMENT = MethodHandles.byteBufferViewVarHandle(long[].class, BYTE_ORDER);
+        private static final int ELEMENT_SHIFT = 3;
+
+        private final long[] array;
+
+        private OfLong(long[] array, ByteBuffer[] chunks, long offset, long length) {
+            super(chunks, offset, length, ELEMENT_SHIFT);
+            this.array = array;
+        }
+
+        public static OfLong of(long[] array) {
+            return new OfLong(array, null, 0, array.length);
+        }
+
+        /**
+         * Allocates a zeroed off-heap view, which is limited by {@code -XX:MaxDirectMemorySize}
+         *
+         * @throws IllegalArgumentException if the length is negative
+         */
+        public static OfLong allocate(long length) {
+            return new OfLong(null, allocateChunks(length, ELEMENT_SHIFT), 0, length);
+        }
+
+        /**
+         * Maps the whole given file, ignoring trailing bytes that do not form a full element
+         */
+        public static OfLong map(Path file, FileChannel.MapMode mode) throws IOException {
+            ByteBuffer[] chunks = mapChunks(file, mode, -1, ELEMENT_SHIFT);
+            return new OfLong(null, chunks, 0, lengthOf(chunks, ELEMENT_SHIFT));
+        }
+
+        /**
+         * Maps the given file for reading and writing, creating or growing it to hold the given number of elements
+         */
+        public static OfLong map(Path file, long length) throws IOException {
+            return new OfLong(null, mapChunks(file, FileChannel.MapMode.READ_WRITE, checkLength(length), ELEMENT_SHIFT), 0, length);
+        }
+
+        public long get(long index) {
+            long element = elementAt(index);
+            if (array != null) {
+                return (long) ARRAY_ELEMENT.get(array, (int) element);
+            }
+            return (long) BUFFER_ELEMENT.get(chunkOf(element), positionOf(element));
+        }
+
+        public void set(long index, long value) {
+            long element = elementAt(index);
+            if (array != null) {
+                ARRAY_ELEMENT.set(array, (int) element, value);
+            } else {
+                BUFFER_ELEMENT.set(chunkOf(element), positionOf(element), value);
+            }
+        }
+
+        /**
+         * Copies count elements starting at the given index into the destination array
+         */
+        public void get(long index, long[] destination, int destinationOffset, int count) {
+            Objects.checkFromIndexSize(destinationOffset, count, destination.length);
+            long element = elementsAt(index, count);
+            if (array != null) {
+                System.arraycopy(array, (int) element, destination, destinationOffset, count);
+                return;
+            }
+            while (count > 0) {
+                int chunkCount = elementsInChunk(element, count);
+                region(element, chunkCount).asLongBuffer().get(destination, destinationOffset, chunkCount);
+                element += chunkCount;
+                destinationOffset += chunkCount;
+                count -= chunkCount;
+            }
+        }
+
+        /**
+         * Copies count elements of the source array into the view, starting at the given index
+         */
+        public void put(long index, long[] source, int sourceOffset, int count) {
+            Objects.checkFromIndexSize(sourceOffset, count, source.length);
+            long element = elementsAt(index, count);
+            if (array != null) {
+                System.arraycopy(source, sourceOffset, array, (int) element, count);
+                return;
+            }
+            while (count > 0) {
+                int chunkCount = elementsInChunk(element, count);
+                region(element, chunkCount).asLongBuffer().put(source, sourceOffset, chunkCount);
+                element += chunkCount;
+                sourceOffset += chunkCount;
+                count -= chunkCount;
+            }
+        }
+
+        /**
+         * Returns a view of the elements from the first index up to the exclusive second one, without copying them
+         */
+        public OfLong slice(long from, long to) {
+            long[] bounds = sliceBounds(from, to);
+            return new OfLong(array, chunks, bounds[0], bounds[1]);
+        }
+
+        @Override
+        public String toString() {
+            return toString(Math.min(length, 16), i -> String.valueOf(get(i)));
+        }
+
+    }
+
+    /**
+     * View of double elements
+     */
+    public static final class OfDouble extends ArrayView {
+
+        private static final VarHandle ARRAY_ELEMENT = MethodHandles.arrayElementVarHandle(double[].class);
+        private static final VarHandle BUFFER_ELEMENT = MethodHandles.byteBufferViewVarHandle(double[].class, BYTE_ORDER);
+        private static final int ELEMENT_SHIFT = 3;
+
+        private final double[] array;
+
+        private OfDouble(double[] array, ByteBuffer[] chunks, long offset, long length) {
+            super(chunks, offset, length, ELEMENT_SHIFT);
+            this.array = array;
+        }
+
+        public static OfDouble of(double[] array) {
+            return new OfDouble(array, null, 0, array.length);
+        }
+
+        /**
+         * Allocates a zeroed off-heap view, which is limited by {@code -XX:MaxDirectMemorySize}
+         *
+         * @throws IllegalArgumentException if the length is negative
+         */
+        public static OfDouble allocate(long length) {
+            return new OfDouble(null, allocateChunks(length, ELEMENT_SHIFT), 0, length);
+        }
+
+        /**
+         * Maps the whole given file, ignoring trailing bytes that do not form a full element
+         */
+        public static OfDouble map(Path file, FileChannel.MapMode mode) throws IOException {
+            ByteBuffer[] chunks = mapChunks(file, mode, -1, ELEMENT_SHIFT);
+            return new OfDouble(null, chunks, 0, lengthOf(chunks, ELEMENT_SHIFT));
+        }
+
+        /**
+         * Maps the given file for reading and writing, creating or growing it to hold the given number of elements
+         */
+        public static OfDouble map(Path file, long length) throws IOException {
+            return new OfDouble(null, mapChunks(file, FileChannel.MapMode.READ_WRITE, checkLength(length), ELEMENT_SHIFT), 0, length);
+        }
+
+        public double get(long index) {
+            long element = elementAt(index);
+            if (array != null) {
+                return (double) ARRAY_ELEMENT.get(array, (int) element);
+            }
+            return (double) BUFFER_ELEMENT.get(chunkOf(element), positionOf(element));
+        }
+
+        public void set(long index, double value) {
+            long element = elementAt(index);
+            if (array != null) {
+                ARRAY_ELEMENT.set(array, (int) element, value);
+            } else {
+                BUFFER_ELEMENT.set(chunkOf(element), positionOf(element), value);
+            }
+        }
+
+        /**
+         * Copies count elements starting at the given index into the destination array
+         */
+        public void get(long index, double[] destination, int destinationOffset, int count) {
+            Objects.checkFromIndexSize(destinationOffset, count, destination.length);
+            long element = elementsAt(index, count);
+            if (array != null) {
+                System.arraycopy(array, (int) element, destination, destinationOffset, count);
+                return;
+            }
+            while (count > 0) {
+                int chunkCount = elementsInChunk(element, count);
+                region(element, chunkCount).asDoubleBuffer().get(destination, destinationOffset, chunkCount);
+                element += chunkCount;
+                destinationOffset += chunkCount;
+                count -= chunkCount;
+            }
+        }
+
+        /**
+         * Copies count elements of the source array into the view, starting at the given index
+         */
+        public void put(long index, double[] source, int sourceOffset, int count) {
+            Objects.checkFromIndexSize(sourceOffset, count, source.length);
+            long element = elementsAt(index, count);
+            if (array != null) {
+                System.arraycopy(source, sourceOffset, array, (int) element, count);
+                return;
+            }
+            while (count > 0) {
+                int chunkCount = elementsInChunk(element, count);
+                region(element, chunkCount).asDoubleBuffer().put(source, sourceOffset, chunkCount);
+                element += chunkCount;
+                sourceOffset += chunkCount;
+                count -= chunkCount;
+            }
+        }
+
+        /**
+         * Returns a view of the elements from the first index up to the exclusive second one, without copying them
+         */
+        public OfDouble slice(long from, long to) {
+            long[] bounds = sliceBounds(from, to);
+            return new OfDouble(array, chunks, bounds[0], bounds[1]);
+        }
+
+        @Override
+        public String toString() {
+            return toString(Math.min(length, 16), i -> String.valueOf(get(i)));
+        }
+
+    }
+
+}
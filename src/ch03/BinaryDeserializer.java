@@ -0,0 +1,367 @@
+package ch03;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decoder of the binary format written by {@link BinarySerializer}
+ * <p>
+ * Values are bound into the target type through the same binding plans the {@link JsonDeserializer}
+ * uses. Packed primitive arrays are read with exact sizes known up front, floating point blocks are
+ * copied out of the buffer in bulk, and unknown fields are skipped by their encoded lengths.
+ */
+public class BinaryDeserializer {
+
+    /**
+     * Deserializes the object encoded in the remaining bytes of the given buffer.
+     * The buffer position is advanced past the decoded object.
+     */
+    public <T> T binaryToObject(ByteBuffer bytes, Class<T> type) {
+        ByteBuffer buffer = bytes.slice().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            Object value = readValue(buffer, buffer.get(), type, SerializationPlan.categoryOf(type));
+            bytes.position(bytes.position() + buffer.position());
+            @SuppressWarnings("unchecked")
+            T result = (T) (type.isPrimitive() ? value : type.cast(value));
+            return result;
+        } catch (BufferUnderflowException ex) {
+            throw new IllegalArgumentException("Malformed binary: Unexpected end of input", ex);
+        }
+    }
+
+    /**
+     * Reads the value starting with the given tag as the given type
+     */
+    private Object readValue(ByteBuffer buffer, byte tag, Class<?> type, SerializationPlan.Category category) {
+        if (tag == BinaryFormat.NULL && !type.isPrimitive()) {
+            return null;
+        }
+
+        return switch (category) {
+            case BOOLEAN -> readBoolean(tag);
+            case BYTE -> (byte) readInteger(buffer, tag, Byte.MIN_VALUE, Byte.MAX_VALUE);
+            case CHAR -> (char) readInteger(buffer, tag, Character.MIN_VALUE, Character.MAX_VALUE);
+            case SHORT -> (short) readInteger(buffer, tag, Short.MIN_VALUE, Short.MAX_VALUE);
+            case INT -> (int) readInteger(buffer, tag, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            case LONG -> readInteger(buffer, tag, Long.MIN_VALUE, Long.MAX_VALUE);
+            case FLOAT -> (float) readFloatingPoint(buffer, tag);
+            case DOUBLE -> readFloatingPoint(buffer, tag);
+            case STRING -> readString(buffer, tag);
+            case ARRAY -> readArray(buffer, tag, type);
+            case BOXED -> readValue(buffer, tag, type, SerializationPlan.unboxedCategoryOf(type));
+            case NUMBER -> readNumber(buffer, tag, type);
+            case ENUM -> readEnum(buffer, tag, type);
+            case OBJECT -> readObject(buffer, tag, type);
+            // Not bound yet, generic containers would need the element types lost to erasure
+            case COLLECTION, MAP, OPTIONAL, TEMPORAL -> throw new IllegalArgumentException(
+                    "Type is not supported by the deserializer: " + type.getTypeName());
+        };
+    }
+
+    private Object readObject(ByteBuffer buffer, byte tag, Class<?> type) {
+        expectTag(tag, BinaryFormat.OBJECT);
+
+        BindingPlan plan = BindingPlan.of(type);
+        Object instance = plan.isRecord() ? null : plan.newInstance();
+        Object[] componentValues = plan.isRecord() ? new Object[plan.componentCount()] : null;
+
+        int fieldCount = readLength(buffer);
+        for (int i = 0; i < fieldCount; i++) {
+            BindingPlan.FieldBinding binding = plan.binding(readUtf8(buffer, readLength(buffer)));
+            byte valueTag = buffer.get();
+            if (binding == null) {
+                skipValue(buffer, valueTag);
+                continue;
+            }
+
+            SerializationPlan.FieldPlan field = binding.field();
+            if (componentValues != null) {
+                componentValues[binding.index()] = readValue(buffer, valueTag, field.type(), field.category());
+            } else {
+                readIntoField(buffer, valueTag, instance, binding);
+            }
+        }
+
+        return componentValues != null ? plan.newRecord(componentValues) : instance;
+    }
+
+    /**
+     * Reads the current value into the field of an ordinary class, primitives are written without boxing
+     */
+    private void readIntoField(ByteBuffer buffer, byte tag, Object instance, BindingPlan.FieldBinding binding) {
+        SerializationPlan.FieldPlan field = binding.field();
+        switch (field.category()) {
+            case BOOLEAN -> binding.setBoolean(instance, readBoolean(tag));
+            case BYTE -> binding.setByte(instance, (byte) readInteger(buffer, tag, Byte.MIN_VALUE, Byte.MAX_VALUE));
+            case CHAR -> binding.setChar(instance, (char) readInteger(buffer, tag, Character.MIN_VALUE, Character.MAX_VALUE));
+            case SHORT -> binding.setShort(instance, (short) readInteger(buffer, tag, Short.MIN_VALUE, Short.MAX_VALUE));
+            case INT -> binding.setInt(instance, (int) readInteger(buffer, tag, Integer.MIN_VALUE, Integer.MAX_VALUE));
+            case LONG -> binding.setLong(instance, readInteger(buffer, tag, Long.MIN_VALUE, Long.MAX_VALUE));
+            case FLOAT -> binding.setFloat(instance, (float) readFloatingPoint(buffer, tag));
+            case DOUBLE -> binding.setDouble(instance, readFloatingPoint(buffer, tag));
+            default -> binding.set(instance, readValue(buffer, tag, field.type(), field.category()));
+        }
+    }
+
+    private Object readArray(ByteBuffer buffer, byte tag, Class<?> arrayType) {
+        SerializationPlan arrayPlan = SerializationPlan.of(arrayType);
+        SerializationPlan.Category componentCategory = arrayPlan.componentCategory();
+
+        if (tag == BinaryFormat.ARRAY) {
+            int length = readLength(buffer);
+            Object array = Array.newInstance(arrayPlan.componentType(), length);
+            if (array instanceof Object[] elements) {
+                for (int i = 0; i < length; i++) {
+                    elements[i] = readValue(buffer, buffer.get(), arrayPlan.componentType(), componentCategory);
+                }
+            } else {
+                // Primitive arrays written as tagged elements by other encoders
+                for (int i = 0; i < length; i++) {
+                    Array.set(array, i, readValue(buffer, buffer.get(), arrayPlan.componentType(), componentCategory));
+                }
+            }
+            return array;
+        }
+
+        expectTag(tag, BinaryFormat.PACKED_ARRAY);
+        byte elementTag = buffer.get();
+        expectTag(elementTag, packedTagOf(componentCategory));
+        int length = readLength(buffer);
+
+        switch (componentCategory) {
+            case BOOLEAN -> {
+                boolean[] elements = new boolean[length];
+                for (int i = 0; i < length; i++) {
+                    elements[i] = buffer.get() != 0;
+                }
+                return elements;
+            }
+            case BYTE -> {
+                byte[] elements = new byte[length];
+                buffer.get(elements);
+                return elements;
+            }
+            case CHAR -> {
+                char[] elements = new char[length];
+                for (int i = 0; i < length; i++) {
+                    elements[i] = (char) readVarint(buffer);
+                }
+                return elements;
+            }
+            case SHORT -> {
+                short[] elements = new short[length];
+                for (int i = 0; i < length; i++) {
+                    elements[i] = (short) BinaryFormat.zigzagDecode(readVarint(buffer));
+                }
+                return elements;
+            }
+            case INT -> {
+                int[] elements = new int[length];
+                for (int i = 0; i < length; i++) {
+                    elements[i] = (int) BinaryFormat.zigzagDecode(readVarint(buffer));
+                }
+                return elements;
+            }
+            case LONG -> {
+                long[] elements = new long[length];
+                for (int i = 0; i < length; i++) {
+                    elements[i] = BinaryFormat.zigzagDecode(readVarint(buffer));
+                }
+                return elements;
+            }
+            case FLOAT -> {
+                float[] elements = new float[length];
+                buffer.asFloatBuffer().get(elements);
+                buffer.position(buffer.position() + length * Float.BYTES);
+                return elements;
+            }
+            case DOUBLE -> {
+                double[] elements = new double[length];
+                buffer.asDoubleBuffer().get(elements);
+                buffer.position(buffer.position() + length * Double.BYTES);
+                return elements;
+            }
+            default -> throw new IllegalStateException("Unexpected packed array of " + componentCategory);
+        }
+    }
+
+    /***** Helper Methods *****/
+
+    private boolean readBoolean(byte tag) {
+        return switch (tag) {
+            case BinaryFormat.TRUE -> true;
+            case BinaryFormat.FALSE -> false;
+            default -> throw unexpectedTag(tag, "a boolean");
+        };
+    }
+
+    private long readInteger(ByteBuffer buffer, byte tag, long minValue, long maxValue) {
+        expectTag(tag, BinaryFormat.INT);
+        long value = BinaryFormat.zigzagDecode(readVarint(buffer));
+        if (value < minValue || value > maxValue) {
+            throw new IllegalArgumentException("Value is out of range: " + value);
+        }
+        return value;
+    }
+
+    private double readFloatingPoint(ByteBuffer buffer, byte tag) {
+        return switch (tag) {
+            case BinaryFormat.FLOAT32 -> buffer.getFloat();
+            case BinaryFormat.FLOAT64 -> buffer.getDouble();
+            case BinaryFormat.INT -> BinaryFormat.zigzagDecode(readVarint(buffer));
+            default -> throw unexpectedTag(tag, "a floating point number");
+        };
+    }
+
+    /**
+     * Reads a number written with its runtime tag. Numbers declared as {@link Number} are read as the boxed type
+     * of their tag, integers as an Integer if they fit, and exact decimals as a BigDecimal.
+     */
+    private Object readNumber(ByteBuffer buffer, byte tag, Class<?> type) {
+        if (type == Number.class) {
+            return switch (tag) {
+                case BinaryFormat.INT -> {
+                    long value = BinaryFormat.zigzagDecode(readVarint(buffer));
+                    yield value == (int) value ? (Object) (int) value : (Object) value;
+                }
+                case BinaryFormat.FLOAT32 -> buffer.getFloat();
+                case BinaryFormat.FLOAT64 -> buffer.getDouble();
+                case BinaryFormat.STRING -> new BigDecimal(readString(buffer, tag));
+                default -> throw unexpectedTag(tag, "a number");
+            };
+        } else if (type == BigDecimal.class) {
+            return switch (tag) {
+                case BinaryFormat.INT -> BigDecimal.valueOf(BinaryFormat.zigzagDecode(readVarint(buffer)));
+                case BinaryFormat.FLOAT32, BinaryFormat.FLOAT64 -> BigDecimal.valueOf(readFloatingPoint(buffer, tag));
+                default -> new BigDecimal(readString(buffer, tag));
+            };
+        } else if (type == BigInteger.class) {
+            return tag == BinaryFormat.INT
+                    ? BigInteger.valueOf(BinaryFormat.zigzagDecode(readVarint(buffer)))
+                    : new BigInteger(readString(buffer, tag));
+        }
+        throw new IllegalArgumentException("Type is not supported by the deserializer: " + type.getTypeName());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object readEnum(ByteBuffer buffer, byte tag, Class<?> type) {
+        return Enum.valueOf((Class) type, readString(buffer, tag));
+    }
+
+    private String readString(ByteBuffer buffer, byte tag) {
+        expectTag(tag, BinaryFormat.STRING);
+        return readUtf8(buffer, readLength(buffer));
+    }
+
+    private String readUtf8(ByteBuffer buffer, int length) {
+        String value;
+        if (buffer.hasArray()) {
+            // Decodes straight from the backing array without an intermediate copy
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] utf8 = new byte[length];
+            buffer.get(utf8);
+            value = new String(utf8, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    private void skipValue(ByteBuffer buffer, byte tag) {
+        switch (tag) {
+            case BinaryFormat.NULL, BinaryFormat.FALSE, BinaryFormat.TRUE -> {}
+            case BinaryFormat.INT -> readVarint(buffer);
+            case BinaryFormat.FLOAT32 -> skipBytes(buffer, Float.BYTES);
+            case BinaryFormat.FLOAT64 -> skipBytes(buffer, Double.BYTES);
+            case BinaryFormat.STRING -> skipBytes(buffer, readLength(buffer));
+            case BinaryFormat.OBJECT -> {
+                int fieldCount = readLength(buffer);
+                for (int i = 0; i < fieldCount; i++) {
+                    skipBytes(buffer, readLength(buffer));
+                    skipValue(buffer, buffer.get());
+                }
+            }
+            case BinaryFormat.ARRAY -> {
+                int length = readLength(buffer);
+                for (int i = 0; i < length; i++) {
+                    skipValue(buffer, buffer.get());
+                }
+            }
+            case BinaryFormat.PACKED_ARRAY -> {
+                byte elementTag = buffer.get();
+                int length = readLength(buffer);
+                switch (elementTag) {
+                    case BinaryFormat.PACKED_BOOLEAN, BinaryFormat.PACKED_BYTE -> skipBytes(buffer, length);
+                    case BinaryFormat.PACKED_FLOAT -> skipBytes(buffer, (long) length * Float.BYTES);
+                    case BinaryFormat.PACKED_DOUBLE -> skipBytes(buffer, (long) length * Double.BYTES);
+                    case BinaryFormat.PACKED_CHAR, BinaryFormat.PACKED_SHORT, BinaryFormat.PACKED_INT, BinaryFormat.PACKED_LONG -> {
+                        for (int i = 0; i < length; i++) {
+                            readVarint(buffer);
+                        }
+                    }
+                    default -> throw unexpectedTag(elementTag, "a packed element type");
+                }
+            }
+            default -> throw unexpectedTag(tag, "a value");
+        }
+    }
+
+    // The length is a long, so a corrupt element count times the element size cannot overflow
+    private void skipBytes(ByteBuffer buffer, long length) {
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        buffer.position(buffer.position() + (int) length);
+    }
+
+    private long readVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed binary: Varint is too long");
+    }
+
+    private int readLength(ByteBuffer buffer) {
+        long length = readVarint(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+            // Every element takes at least one byte, so longer lengths cannot be valid
+            throw new IllegalArgumentException("Malformed binary: Invalid length " + length);
+        }
+        return (int) length;
+    }
+
+    private byte packedTagOf(SerializationPlan.Category category) {
+        return switch (category) {
+            case BOOLEAN -> BinaryFormat.PACKED_BOOLEAN;
+            case BYTE -> BinaryFormat.PACKED_BYTE;
+            case CHAR -> BinaryFormat.PACKED_CHAR;
+            case SHORT -> BinaryFormat.PACKED_SHORT;
+            case INT -> BinaryFormat.PACKED_INT;
+            case LONG -> BinaryFormat.PACKED_LONG;
+            case FLOAT -> BinaryFormat.PACKED_FLOAT;
+            case DOUBLE -> BinaryFormat.PACKED_DOUBLE;
+            default -> throw new IllegalArgumentException("Arrays of " + category + " cannot be packed");
+        };
+    }
+
+    private void expectTag(byte tag, byte expected) {
+        if (tag != expected) {
+            throw unexpectedTag(tag, String.format("tag 0x%02x", expected));
+        }
+    }
+
+    private IllegalArgumentException unexpectedTag(byte tag, String expected) {
+        return new IllegalArgumentException(String.format("Malformed binary: Expected %s but found tag 0x%02x", expected, tag));
+    }
+
+}
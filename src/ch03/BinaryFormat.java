@@ -0,0 +1,57 @@
+package ch03;
+
+/**
+ * Constants of the compact, self-describing binary format written by {@link BinarySerializer}.
+ * <pre>
+ * Every value starts with a one byte type tag:
+ *
+ *      NULL, FALSE, TRUE       no payload
+ *      INT                     zigzag encoded varint (byte, short, char, int and long values)
+ *      FLOAT32, FLOAT64        raw little-endian IEEE 754 value
+ *      STRING                  varint byte length followed by the UTF-8 bytes
+ *      OBJECT                  varint field count followed by (field name, value) pairs,
+ *                              where a field name is encoded like a STRING without its tag
+ *      ARRAY                   varint element count followed by the tagged elements
+ *      PACKED_ARRAY            element tag, varint element count and the untagged elements:
+ *                              one byte per boolean and byte, zigzag varints for integers
+ *                              and raw little-endian IEEE 754 values for floating points
+ * </pre>
+ * Varints use 7 bits per byte, least significant group first, with the high bit set on every byte
+ * except the last one. Zigzag encoding maps signed values to unsigned ones, so that small negative
+ * numbers are encoded in few bytes as well.
+ */
+final class BinaryFormat {
+
+    // Value tags
+    static final byte NULL = 0x00;
+    static final byte FALSE = 0x01;
+    static final byte TRUE = 0x02;
+    static final byte INT = 0x03;
+    static final byte FLOAT32 = 0x04;
+    static final byte FLOAT64 = 0x05;
+    static final byte STRING = 0x06;
+    static final byte OBJECT = 0x07;
+    static final byte ARRAY = 0x08;
+    static final byte PACKED_ARRAY = 0x09;
+
+    // Element tags of packed arrays
+    static final byte PACKED_BOOLEAN = 0x10;
+    static final byte PACKED_BYTE = 0x11;
+    static final byte PACKED_CHAR = 0x12;
+    static final byte PACKED_SHORT = 0x13;
+    static final byte PACKED_INT = 0x14;
+    static final byte PACKED_LONG = 0x15;
+    static final byte PACKED_FLOAT = 0x16;
+    static final byte PACKED_DOUBLE = 0x17;
+
+    private BinaryFormat() {}
+
+    static long zigzagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long zigzagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
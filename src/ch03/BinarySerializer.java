@@ -0,0 +1,330 @@
+package ch03;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+
+/**
+ * Compact binary serializer, the binary counterpart of {@link JsonSerializer}
+ * <p>
+ * The serializer uses the same per-class serialization plans as the JSON serializer, but writes a
+ * self-describing binary format (see {@link BinaryFormat}) with varint integers and raw IEEE 754
+ * floating point values. Primitive arrays are written as packed typed blocks, so a {@code double[]}
+ * is copied into the buffer in bulk instead of being formatted element by element.
+ *
+ * @see BinaryDeserializer
+ */
+public class BinarySerializer {
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    public static void main(String[] args) {
+        // Telemetry model for testing serializer
+        record Telemetry(String sensor, long timestamp, double[] samples, String[] tags) {}
+        Telemetry telemetry = new Telemetry("sensor-1", 1700000000000L, new double[] {0.125, -3.0, 1e-4}, new String[] {"indoor"});
+
+        BinarySerializer binarySerializer = new BinarySerializer();
+        // Shortest round-tripping decimals, so the JSON is exact and the decoded samples show as they were
+        JsonSerializer jsonSerializer = JsonSerializer.builder()
+                .compact(true)
+                .decimalPrecision(JsonSerializer.SHORTEST_DECIMAL_PRECISION)
+                .build();
+        ByteBuffer binary = binarySerializer.objectToBinary(telemetry);
+        String json = jsonSerializer.objectToJson(telemetry, 0);
+        System.out.printf("Binary size: %d bytes, JSON size: %d bytes\n", binary.remaining(), json.length());
+
+        Telemetry decoded = new BinaryDeserializer().binaryToObject(binary, Telemetry.class);
+        System.out.println(jsonSerializer.objectToJson(decoded, 0));
+    }
+
+    /**
+     * Serializes the given object into a new buffer, which is returned ready to be read
+     */
+    public ByteBuffer objectToBinary(Object object) {
+        BufferWriter writer = new BufferWriter(ByteBuffer.allocate(INITIAL_BUFFER_SIZE), true);
+        writeObject(object, writer);
+        return writer.buffer.flip();
+    }
+
+    /**
+     * Serializes the given object into the given buffer, starting at its current position.
+     * The position is advanced past the written object, the byte order of the buffer is not changed.
+     *
+     * @throws java.nio.BufferOverflowException if the object does not fit into the remaining buffer
+     */
+    public void objectToBinary(Object object, ByteBuffer buffer) {
+        // Writes through a duplicate, so the byte order of the given buffer is left as it is
+        BufferWriter writer = new BufferWriter(buffer.duplicate(), false);
+        writeObject(object, writer);
+        buffer.position(writer.buffer.position());
+    }
+
+    private void writeObject(Object object, BufferWriter out) {
+        if (object == null) {
+            throw new IllegalArgumentException("Object cannot be null");
+        }
+
+        SerializationPlan.FieldPlan[] fields = SerializationPlan.of(object.getClass()).fields();
+        out.writeByte(BinaryFormat.OBJECT);
+        out.writeVarint(fields.length);
+
+        for (SerializationPlan.FieldPlan field : fields) {
+            byte[] name = field.utf8Name();
+            out.writeVarint(name.length);
+            out.writeBytes(name);
+
+            switch (field.category()) {
+                case BOOLEAN -> out.writeByte(field.getBoolean(object) ? BinaryFormat.TRUE : BinaryFormat.FALSE);
+                case BYTE -> writeInteger(field.getByte(object), out);
+                case CHAR -> writeInteger(field.getChar(object), out);
+                case SHORT -> writeInteger(field.getShort(object), out);
+                case INT -> writeInteger(field.getInt(object), out);
+                case LONG -> writeInteger(field.getLong(object), out);
+                case FLOAT -> {
+                    out.writeByte(BinaryFormat.FLOAT32);
+                    out.ensureCapacity(Float.BYTES).putFloat(field.getFloat(object));
+                }
+                case DOUBLE -> {
+                    out.writeByte(BinaryFormat.FLOAT64);
+                    out.ensureCapacity(Double.BYTES).putDouble(field.getDouble(object));
+                }
+                default -> writeReference(field.get(object), field.category(), out);
+            }
+        }
+    }
+
+    /***** Helper Methods *****/
+
+    private void writeReference(Object value, SerializationPlan.Category category, BufferWriter out) {
+        if (value == null) {
+            out.writeByte(BinaryFormat.NULL);
+            return;
+        }
+
+        switch (category) {
+            case STRING -> writeString((String) value, out);
+            case ARRAY -> writeArray(value, out);
+            case BOXED -> writeBoxed(value, out);
+            case NUMBER -> writeNumber(value, out);
+            case TEMPORAL -> writeString(value.toString(), out);
+            case ENUM -> writeString(((Enum<?>) value).name(), out);
+            case COLLECTION -> writeCollection((Collection<?>) value, out);
+            case MAP -> writeMap((Map<?, ?>) value, out);
+            case OPTIONAL -> writeOptional(value, out);
+            default -> {
+                // Fields declared as a supertype are dispatched on the runtime type of their value
+                SerializationPlan.Category runtimeCategory = SerializationPlan.categoryOf(value.getClass());
+                if (runtimeCategory == SerializationPlan.Category.OBJECT) {
+                    writeObject(value, out);
+                } else {
+                    writeReference(value, runtimeCategory, out);
+                }
+            }
+        }
+    }
+
+    private void writeRuntimeValue(Object value, BufferWriter out) {
+        writeReference(value, SerializationPlan.Category.OBJECT, out);
+    }
+
+    private void writeBoxed(Object value, BufferWriter out) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            writeInteger(((Number) value).longValue(), out);
+        } else if (value instanceof Double doubleValue) {
+            out.writeByte(BinaryFormat.FLOAT64);
+            out.ensureCapacity(Double.BYTES).putDouble(doubleValue);
+        } else if (value instanceof Float floatValue) {
+            out.writeByte(BinaryFormat.FLOAT32);
+            out.ensureCapacity(Float.BYTES).putFloat(floatValue);
+        } else if (value instanceof Boolean booleanValue) {
+            out.writeByte(booleanValue ? BinaryFormat.TRUE : BinaryFormat.FALSE);
+        } else {
+            writeInteger((Character) value, out);
+        }
+    }
+
+    private void writeNumber(Object value, BufferWriter out) {
+        if (SerializationPlan.categoryOf(value.getClass()) == SerializationPlan.Category.BOXED) {
+            // Fields declared as Number are written with the tag of their runtime type
+            writeBoxed(value, out);
+        } else {
+            // Arbitrary precision numbers keep their exact decimal form
+            writeString(value.toString(), out);
+        }
+    }
+
+    private void writeCollection(Collection<?> collection, BufferWriter out) {
+        out.writeByte(BinaryFormat.ARRAY);
+        out.writeVarint(collection.size());
+        for (Object element : collection) {
+            writeRuntimeValue(element, out);
+        }
+    }
+
+    private void writeMap(Map<?, ?> map, BufferWriter out) {
+        out.writeByte(BinaryFormat.OBJECT);
+        out.writeVarint(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            Object key = entry.getKey();
+            byte[] name = (key instanceof Enum<?> enumKey ? enumKey.name() : String.valueOf(key)).getBytes(StandardCharsets.UTF_8);
+            out.writeVarint(name.length);
+            out.writeBytes(name);
+            writeRuntimeValue(entry.getValue(), out);
+        }
+    }
+
+    private void writeOptional(Object optional, BufferWriter out) {
+        if (optional instanceof Optional<?> value) {
+            writeRuntimeValue(value.orElse(null), out);
+        } else if (optional instanceof OptionalInt value) {
+            writeRuntimeValue(value.isPresent() ? value.getAsInt() : null, out);
+        } else if (optional instanceof OptionalLong value) {
+            writeRuntimeValue(value.isPresent() ? value.getAsLong() : null, out);
+        } else {
+            OptionalDouble value = (OptionalDouble) optional;
+            writeRuntimeValue(value.isPresent() ? value.getAsDouble() : null, out);
+        }
+    }
+
+    private void writeInteger(long value, BufferWriter out) {
+        out.writeByte(BinaryFormat.INT);
+        out.writeVarint(BinaryFormat.zigzagEncode(value));
+    }
+
+    private void writeString(String value, BufferWriter out) {
+        out.writeByte(BinaryFormat.STRING);
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeVarint(utf8.length);
+        out.writeBytes(utf8);
+    }
+
+    private void writeArray(Object arrayInstance, BufferWriter out) {
+        SerializationPlan arrayPlan = SerializationPlan.of(arrayInstance.getClass());
+        switch (arrayPlan.componentCategory()) {
+            case BOOLEAN -> {
+                boolean[] array = (boolean[]) arrayInstance;
+                writePackedHeader(BinaryFormat.PACKED_BOOLEAN, array.length, out);
+                ByteBuffer buffer = out.ensureCapacity(array.length);
+                for (boolean element : array) {
+                    buffer.put(element ? (byte) 1 : (byte) 0);
+                }
+            }
+            case BYTE -> {
+                byte[] array = (byte[]) arrayInstance;
+                writePackedHeader(BinaryFormat.PACKED_BYTE, array.length, out);
+                out.writeBytes(array);
+            }
+            case CHAR -> {
+                char[] array = (char[]) arrayInstance;
+                writePackedHeader(BinaryFormat.PACKED_CHAR, array.length, out);
+                for (char element : array) {
+                    out.writeVarint(element);
+                }
+            }
+            case SHORT -> {
+                short[] array = (short[]) arrayInstance;
+                writePackedHeader(BinaryFormat.PACKED_SHORT, array.length, out);
+                for (short element : array) {
+                    out.writeVarint(BinaryFormat.zigzagEncode(element));
+                }
+            }
+            case INT -> {
+                int[] array = (int[]) arrayInstance;
+                writePackedHeader(BinaryFormat.PACKED_INT, array.length, out);
+                for (int element : array) {
+                    out.writeVarint(BinaryFormat.zigzagEncode(element));
+                }
+            }
+            case LONG -> {
+                long[] array = (long[]) arrayInstance;
+                writePackedHeader(BinaryFormat.PACKED_LONG, array.length, out);
+                for (long element : array) {
+                    out.writeVarint(BinaryFormat.zigzagEncode(element));
+                }
+            }
+            case FLOAT -> {
+                float[] array = (float[]) arrayInstance;
+                writePackedHeader(BinaryFormat.PACKED_FLOAT, array.length, out);
+                ByteBuffer buffer = out.ensureCapacity((long) array.length * Float.BYTES);
+                buffer.asFloatBuffer().put(array);
+                buffer.position(buffer.position() + array.length * Float.BYTES);
+            }
+            case DOUBLE -> {
+                double[] array = (double[]) arrayInstance;
+                writePackedHeader(BinaryFormat.PACKED_DOUBLE, array.length, out);
+                ByteBuffer buffer = out.ensureCapacity((long) array.length * Double.BYTES);
+                buffer.asDoubleBuffer().put(array);
+                buffer.position(buffer.position() + array.length * Double.BYTES);
+            }
+            default -> {
+                Object[] array = (Object[]) arrayInstance;
+                out.writeByte(BinaryFormat.ARRAY);
+                out.writeVarint(array.length);
+                for (Object element : array) {
+                    writeReference(element, arrayPlan.componentCategory(), out);
+                }
+            }
+        }
+    }
+
+    private void writePackedHeader(byte elementTag, int length, BufferWriter out) {
+        out.writeByte(BinaryFormat.PACKED_ARRAY);
+        out.writeByte(elementTag);
+        out.writeVarint(length);
+    }
+
+    /**
+     * Writes into a little-endian buffer, replacing it with a larger one when it is allowed to grow
+     */
+    private static final class BufferWriter {
+
+        private ByteBuffer buffer;
+        private final boolean growable;
+
+        private BufferWriter(ByteBuffer buffer, boolean growable) {
+            this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+            this.growable = growable;
+        }
+
+        /**
+         * Makes sure the given number of bytes fit into the buffer and returns the buffer to write them into
+         */
+        ByteBuffer ensureCapacity(long bytes) {
+            if (growable && buffer.remaining() < bytes) {
+                long requiredCapacity = buffer.position() + bytes;
+                long newCapacity = Math.max(requiredCapacity, (long) buffer.capacity() * 2);
+                if (newCapacity > Integer.MAX_VALUE) {
+                    throw new IllegalStateException("Serialized object is too large for a single buffer");
+                }
+                ByteBuffer newBuffer = ByteBuffer.allocate((int) newCapacity).order(ByteOrder.LITTLE_ENDIAN);
+                buffer = newBuffer.put(buffer.flip());
+            }
+            return buffer;
+        }
+
+        void writeByte(byte value) {
+            ensureCapacity(1).put(value);
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensureCapacity(bytes.length).put(bytes);
+        }
+
+        void writeVarint(long value) {
+            ByteBuffer buffer = ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+    }
+
+}
@@ -0,0 +1,274 @@
+package ch03;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.RecordComponent;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Precompiled binding plan of a class, the deserialization counterpart of {@link SerializationPlan}.
+ * <p>
+ * The plan reuses the field list and type categories of the serialization plan and adds what is
+ * needed to create instances: a setter handle per field and a constructor handle. Records are
+ * created through their canonical constructor with all values collected up front, every other
+ * class is created through its no-arg constructor and filled through the setter handles.
+ */
+final class BindingPlan {
+
+    private static final ClassValue<BindingPlan> PLANS = new ClassValue<>() {
+        @Override
+        protected BindingPlan computeValue(Class<?> type) {
+            return new BindingPlan(type);
+        }
+    };
+
+    private final SerializationPlan serializationPlan;
+    private final Map<String, FieldBinding> bindingsByName = new HashMap<>();
+    private final boolean isRecord;
+    private final MethodHandle constructor;
+    private final Class<?>[] componentTypes;
+
+    private BindingPlan(Class<?> type) {
+        this.serializationPlan = SerializationPlan.of(type);
+        this.isRecord = type.isRecord();
+
+        MethodHandles.Lookup lookup;
+        try {
+            lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+        } catch (IllegalAccessException ex) {
+            throw new IllegalArgumentException("Type " + type.getTypeName() + " is not accessible", ex);
+        }
+
+        SerializationPlan.FieldPlan[] fields = serializationPlan.fields();
+        try {
+            if (isRecord) {
+                RecordComponent[] components = type.getRecordComponents();
+                this.componentTypes = new Class<?>[components.length];
+                for (int i = 0; i < components.length; i++) {
+                    componentTypes[i] = components[i].getType();
+                }
+                this.constructor = lookup.findConstructor(type, MethodType.methodType(void.class, componentTypes))
+                        .asSpreader(Object[].class, components.length);
+
+                for (int i = 0; i < fields.length; i++) {
+                    bindingsByName.put(fields[i].name(), new FieldBinding(fields[i], indexOf(components, fields[i].name()), null));
+                }
+            } else {
+                this.constructor = lookup.findConstructor(type, MethodType.methodType(void.class));
+                this.componentTypes = null;
+
+                for (int i = 0; i < fields.length; i++) {
+                    Field field = fields[i].field();
+                    // Allows final fields of ordinary classes to be written through the setter handle
+                    field.setAccessible(true);
+                    MethodHandle setter = lookup.unreflectSetter(field);
+                    setter = setter.asType(MethodType.methodType(void.class, Object.class, setterValueType(field.getType())));
+                    bindingsByName.put(fields[i].name(), new FieldBinding(fields[i], i, setter));
+                }
+            }
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            throw new IllegalArgumentException(String.format(
+                    "Type %s needs a no-arg or a canonical record constructor to be deserialized",
+                    type.getTypeName()
+            ), ex);
+        }
+    }
+
+    /**
+     * Returns the cached plan of the given class, computing it on first use
+     */
+    static BindingPlan of(Class<?> type) {
+        return PLANS.get(type);
+    }
+
+    boolean isRecord() {
+        return isRecord;
+    }
+
+    int componentCount() {
+        return componentTypes.length;
+    }
+
+    /**
+     * Returns the binding of the field with the given name, or null if there is no such field
+     */
+    FieldBinding binding(String fieldName) {
+        return bindingsByName.get(fieldName);
+    }
+
+    /**
+     * Creates a new instance of an ordinary class through its no-arg constructor
+     */
+    Object newInstance() {
+        try {
+            return constructor.invoke();
+        } catch (Throwable ex) {
+            throw new IllegalStateException("Failed to create an instance of " + serializationPlan.type().getTypeName(), ex);
+        }
+    }
+
+    /**
+     * Creates a new record instance through its canonical constructor, with the values in component order
+     */
+    Object newRecord(Object[] componentValues) {
+        for (int i = 0; i < componentValues.length; i++) {
+            if (componentValues[i] == null) {
+                componentValues[i] = defaultValue(componentTypes[i]);
+            }
+        }
+
+        try {
+            return constructor.invoke(componentValues);
+        } catch (Throwable ex) {
+            throw new IllegalStateException("Failed to create an instance of " + serializationPlan.type().getTypeName(), ex);
+        }
+    }
+
+    /***** Helper Methods *****/
+
+    private static int indexOf(RecordComponent[] components, String name) {
+        for (int i = 0; i < components.length; i++) {
+            if (components[i].getName().equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Record component not found: " + name);
+    }
+
+    private static Class<?> setterValueType(Class<?> fieldType) {
+        return fieldType.isPrimitive() ? fieldType : Object.class;
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return null;
+        } else if (type == boolean.class) {
+            return false;
+        } else if (type == char.class) {
+            return '\0';
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == float.class) {
+            return 0f;
+        } else {
+            return 0d;
+        }
+    }
+
+    /**
+     * Binding details of a single field.
+     * The setter is only present for ordinary classes; record values are passed to the constructor.
+     */
+    static final class FieldBinding {
+
+        private final SerializationPlan.FieldPlan field;
+        private final int index;
+        private final MethodHandle setter;
+
+        private FieldBinding(SerializationPlan.FieldPlan field, int index, MethodHandle setter) {
+            this.field = field;
+            this.index = index;
+            this.setter = setter;
+        }
+
+        SerializationPlan.FieldPlan field() {
+            return field;
+        }
+
+        /**
+         * Returns the index of the field, which is the constructor parameter index for records
+         */
+        int index() {
+            return index;
+        }
+
+        // Typed setters writing primitive values without boxing them
+
+        void setBoolean(Object instance, boolean value) {
+            try {
+                setter.invokeExact(instance, value);
+            } catch (Throwable ex) {
+                throw setterFailure(ex);
+            }
+        }
+
+        void setByte(Object instance, byte value) {
+            try {
+                setter.invokeExact(instance, value);
+            } catch (Throwable ex) {
+                throw setterFailure(ex);
+            }
+        }
+
+        void setChar(Object instance, char value) {
+            try {
+                setter.invokeExact(instance, value);
+            } catch (Throwable ex) {
+                throw setterFailure(ex);
+            }
+        }
+
+        void setShort(Object instance, short value) {
+            try {
+                setter.invokeExact(instance, value);
+            } catch (Throwable ex) {
+                throw setterFailure(ex);
+            }
+        }
+
+        void setInt(Object instance, int value) {
+            try {
+                setter.invokeExact(instance, value);
+            } catch (Throwable ex) {
+                throw setterFailure(ex);
+            }
+        }
+
+        void setLong(Object instance, long value) {
+            try {
+                setter.invokeExact(instance, value);
+            } catch (Throwable ex) {
+                throw setterFailure(ex);
+            }
+        }
+
+        void setFloat(Object instance, float value) {
+            try {
+                setter.invokeExact(instance, value);
+            } catch (Throwable ex) {
+                throw setterFailure(ex);
+            }
+        }
+
+        void setDouble(Object instance, double value) {
+            try {
+                setter.invokeExact(instance, value);
+            } catch (Throwable ex) {
+                throw setterFailure(ex);
+            }
+        }
+
+        void set(Object instance, Object value) {
+            try {
+                setter.invokeExact(instance, value);
+            } catch (Throwable ex) {
+                throw setterFailure(ex);
+            }
+        }
+
+        private IllegalStateException setterFailure(Throwable cause) {
+            return new IllegalStateException("Failed to set field " + field.name(), cause);
+        }
+
+    }
+
+}
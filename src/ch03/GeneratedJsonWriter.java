@@ -0,0 +1,23 @@
+package ch03;
+
+import java.io.IOException;
+
+/**
+ * Base class of the serializers generated at runtime for a single model type.
+ * <p>
+ * A generated writer is a hidden class defined in the package of its model type. Its
+ * {@link #writeFields(Object, JsonFieldSink)} method is a straight-line sequence of field reads
+ * and sink calls with the field names as constants, so the JIT can inline it completely.
+ *
+ * @see JsonWriterGenerator
+ */
+public abstract class GeneratedJsonWriter {
+
+    protected GeneratedJsonWriter() {}
+
+    /**
+     * Writes all serializable fields of the given instance into the given sink
+     */
+    public abstract void writeFields(Object instance, JsonFieldSink sink) throws IOException;
+
+}
@@ -0,0 +1,375 @@
+package ch03;
+
+import ch03.JsonTokenizer.Token;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Basic JSON Deserializer Implementation, the counterpart of {@link JsonSerializer}
+ * <p>
+ * The deserializer pulls tokens from a {@link JsonTokenizer} and binds them straight into the
+ * target type, using the same per-class metadata the serializer uses. Ordinary classes are created
+ * through their no-arg constructor and filled through field handles, records are created through
+ * their canonical constructor. Arrays are bound without intermediate lists and unknown fields are
+ * skipped without being materialized.
+ */
+public class JsonDeserializer {
+
+    private static final int INITIAL_ARRAY_CAPACITY = 16;
+
+    public static void main(String[] args) {
+        // Book model for testing deserializer
+        record Book(String name, int pages, String[] genres) {}
+        Book book = new Book("The Lord of The Rings", 1216, new String[] {"Fantasy", "Classic", "Adventure"});
+
+        String json = new JsonSerializer().objectToJson(book, 0);
+        // Unknown fields are skipped
+        String jsonWithUnknownFields = json.replace("{", "{\"publisher\":{\"name\":\"Allen & Unwin\"},");
+
+        JsonDeserializer jsonDeserializer = new JsonDeserializer();
+        Book deserializedBook = jsonDeserializer.jsonToObject(jsonWithUnknownFields, Book.class);
+        System.out.printf("%s, %d pages, genres: %s\n",
+                deserializedBook.name(),
+                deserializedBook.pages(),
+                Arrays.toString(deserializedBook.genres()));
+    }
+
+    public <T> T jsonToObject(String json, Class<T> type) {
+        try {
+            return jsonToObject(new StringReader(json), type);
+        } catch (IOException ex) {
+            // StringReader never throws IOException
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    public <T> T jsonToObject(Reader reader, Class<T> type) throws IOException {
+        return readDocument(new JsonTokenizer(reader), type);
+    }
+
+    /**
+     * Deserializes the UTF-8 encoded document in the remaining bytes of the given buffer
+     */
+    public <T> T jsonToObject(ByteBuffer bytes, Class<T> type) {
+        try {
+            return readDocument(new JsonTokenizer(bytes), type);
+        } catch (IOException ex) {
+            // ByteBuffer sources never throw IOException
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private <T> T readDocument(JsonTokenizer tokenizer, Class<T> type) throws IOException {
+        tokenizer.next();
+        Object value = readValue(tokenizer, type, SerializationPlan.categoryOf(type));
+        if (tokenizer.next() != Token.END_DOCUMENT) {
+            throw new IllegalArgumentException("Malformed JSON: Unexpected content after the document");
+        }
+
+        @SuppressWarnings("unchecked")
+        T result = (T) (type.isPrimitive() ? value : type.cast(value));
+        return result;
+    }
+
+    /**
+     * Reads the value the tokenizer is positioned on as the given type
+     */
+    private Object readValue(JsonTokenizer tokenizer, Class<?> type, SerializationPlan.Category category) throws IOException {
+        if (tokenizer.currentToken() == Token.NULL && !type.isPrimitive()) {
+            return null;
+        }
+
+        return switch (category) {
+            case BOOLEAN -> readBoolean(tokenizer);
+            case BYTE -> (byte) readInt(tokenizer, Byte.MIN_VALUE, Byte.MAX_VALUE);
+            case CHAR -> readChar(tokenizer);
+            case SHORT -> (short) readInt(tokenizer, Short.MIN_VALUE, Short.MAX_VALUE);
+            case INT -> readInt(tokenizer, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            case LONG -> readLong(tokenizer);
+            case FLOAT -> (float) readDouble(tokenizer);
+            case DOUBLE -> readDouble(tokenizer);
+            case STRING -> readString(tokenizer);
+            case ARRAY -> readArray(tokenizer, type);
+            case BOXED -> readBoxed(tokenizer, type);
+            case NUMBER -> readNumber(tokenizer, type);
+            case ENUM -> readEnum(tokenizer, type);
+            case OBJECT -> readObject(tokenizer, type);
+            // Not bound yet, generic containers would need the element types lost to erasure
+            case COLLECTION, MAP, OPTIONAL, TEMPORAL -> throw new IllegalArgumentException(
+                    "Type is not supported by the deserializer: " + type.getTypeName());
+        };
+    }
+
+    private Object readObject(JsonTokenizer tokenizer, Class<?> type) throws IOException {
+        expectToken(tokenizer, Token.START_OBJECT);
+
+        BindingPlan plan = BindingPlan.of(type);
+        Object instance = plan.isRecord() ? null : plan.newInstance();
+        Object[] componentValues = plan.isRecord() ? new Object[plan.componentCount()] : null;
+
+        while (tokenizer.next() == Token.FIELD_NAME) {
+            BindingPlan.FieldBinding binding = plan.binding(tokenizer.text());
+            if (binding == null) {
+                tokenizer.skipValue();
+                continue;
+            }
+
+            tokenizer.next();
+            SerializationPlan.FieldPlan field = binding.field();
+            if (componentValues != null) {
+                componentValues[binding.index()] = readValue(tokenizer, field.type(), field.category());
+            } else {
+                readIntoField(tokenizer, instance, binding);
+            }
+        }
+
+        return componentValues != null ? plan.newRecord(componentValues) : instance;
+    }
+
+    /**
+     * Reads the current value into the field of an ordinary class, primitives are written without boxing
+     */
+    private void readIntoField(JsonTokenizer tokenizer, Object instance, BindingPlan.FieldBinding binding) throws IOException {
+        SerializationPlan.FieldPlan field = binding.field();
+        switch (field.category()) {
+            case BOOLEAN -> binding.setBoolean(instance, readBoolean(tokenizer));
+            case BYTE -> binding.setByte(instance, (byte) readInt(tokenizer, Byte.MIN_VALUE, Byte.MAX_VALUE));
+            case CHAR -> binding.setChar(instance, readChar(tokenizer));
+            case SHORT -> binding.setShort(instance, (short) readInt(tokenizer, Short.MIN_VALUE, Short.MAX_VALUE));
+            case INT -> binding.setInt(instance, readInt(tokenizer, Integer.MIN_VALUE, Integer.MAX_VALUE));
+            case LONG -> binding.setLong(instance, readLong(tokenizer));
+            case FLOAT -> binding.setFloat(instance, (float) readDouble(tokenizer));
+            case DOUBLE -> binding.setDouble(instance, readDouble(tokenizer));
+            default -> binding.set(instance, readValue(tokenizer, field.type(), field.category()));
+        }
+    }
+
+    private Object readArray(JsonTokenizer tokenizer, Class<?> arrayType) throws IOException {
+        expectToken(tokenizer, Token.START_ARRAY);
+
+        SerializationPlan arrayPlan = SerializationPlan.of(arrayType);
+        return switch (arrayPlan.componentCategory()) {
+            case BOOLEAN -> readBooleanElements(tokenizer);
+            case BYTE -> readByteElements(tokenizer);
+            case CHAR -> readCharElements(tokenizer);
+            case SHORT -> readShortElements(tokenizer);
+            case INT -> readIntElements(tokenizer);
+            case LONG -> readLongElements(tokenizer);
+            case FLOAT -> readFloatElements(tokenizer);
+            case DOUBLE -> readDoubleElements(tokenizer);
+            default -> readReferenceElements(tokenizer, arrayPlan.componentType(), arrayPlan.componentCategory());
+        };
+    }
+
+    /***** Helper Methods *****/
+
+    private boolean readBoolean(JsonTokenizer tokenizer) {
+        return switch (tokenizer.currentToken()) {
+            case TRUE -> true;
+            case FALSE -> false;
+            default -> throw unexpectedToken(tokenizer, "a boolean");
+        };
+    }
+
+    private char readChar(JsonTokenizer tokenizer) throws IOException {
+        String value = readString(tokenizer);
+        if (value == null || value.length() != 1) {
+            throw new IllegalArgumentException("Expected a single character but found: " + value);
+        }
+        return value.charAt(0);
+    }
+
+    private int readInt(JsonTokenizer tokenizer, int minValue, int maxValue) {
+        expectToken(tokenizer, Token.NUMBER);
+        int value = tokenizer.intValue();
+        if (value < minValue || value > maxValue) {
+            throw new IllegalArgumentException("Value is out of range: " + value);
+        }
+        return value;
+    }
+
+    private long readLong(JsonTokenizer tokenizer) {
+        expectToken(tokenizer, Token.NUMBER);
+        return tokenizer.longValue();
+    }
+
+    private double readDouble(JsonTokenizer tokenizer) {
+        // Non-finite values are written as null by the serializer
+        if (tokenizer.currentToken() == Token.NULL) {
+            return Double.NaN;
+        }
+        expectToken(tokenizer, Token.NUMBER);
+        return tokenizer.doubleValue();
+    }
+
+    private Object readBoxed(JsonTokenizer tokenizer, Class<?> type) throws IOException {
+        if (type == Boolean.class) {
+            return readBoolean(tokenizer);
+        } else if (type == Character.class) {
+            return readChar(tokenizer);
+        } else if (type == Byte.class) {
+            return (byte) readInt(tokenizer, Byte.MIN_VALUE, Byte.MAX_VALUE);
+        } else if (type == Short.class) {
+            return (short) readInt(tokenizer, Short.MIN_VALUE, Short.MAX_VALUE);
+        } else if (type == Integer.class) {
+            return readInt(tokenizer, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        } else if (type == Long.class) {
+            return readLong(tokenizer);
+        } else if (type == Float.class) {
+            return (float) readDouble(tokenizer);
+        } else {
+            return readDouble(tokenizer);
+        }
+    }
+
+    private Object readNumber(JsonTokenizer tokenizer, Class<?> type) throws IOException {
+        expectToken(tokenizer, Token.NUMBER);
+        if (type == BigDecimal.class || type == Number.class) {
+            return new BigDecimal(tokenizer.text());
+        } else if (type == BigInteger.class) {
+            return new BigInteger(tokenizer.text());
+        }
+        throw new IllegalArgumentException("Type is not supported by the deserializer: " + type.getTypeName());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object readEnum(JsonTokenizer tokenizer, Class<?> type) throws IOException {
+        String name = readString(tokenizer);
+        return name == null ? null : Enum.valueOf((Class) type, name);
+    }
+
+    private String readString(JsonTokenizer tokenizer) throws IOException {
+        if (tokenizer.currentToken() == Token.NULL) {
+            return null;
+        }
+        expectToken(tokenizer, Token.STRING);
+        return tokenizer.text();
+    }
+
+    private Object[] readReferenceElements(JsonTokenizer tokenizer, Class<?> componentType, SerializationPlan.Category category) throws IOException {
+        Object[] elements = (Object[]) Array.newInstance(componentType, INITIAL_ARRAY_CAPACITY);
+        int length = 0;
+        while (tokenizer.next() != Token.END_ARRAY) {
+            if (length == elements.length) {
+                elements = Arrays.copyOf(elements, length * 2);
+            }
+            elements[length++] = readValue(tokenizer, componentType, category);
+        }
+        return Arrays.copyOf(elements, length);
+    }
+
+    private boolean[] readBooleanElements(JsonTokenizer tokenizer) throws IOException {
+        boolean[] elements = new boolean[INITIAL_ARRAY_CAPACITY];
+        int length = 0;
+        while (tokenizer.next() != Token.END_ARRAY) {
+            if (length == elements.length) {
+                elements = Arrays.copyOf(elements, length * 2);
+            }
+            elements[length++] = readBoolean(tokenizer);
+        }
+        return Arrays.copyOf(elements, length);
+    }
+
+    private byte[] readByteElements(JsonTokenizer tokenizer) throws IOException {
+        byte[] elements = new byte[INITIAL_ARRAY_CAPACITY];
+        int length = 0;
+        while (tokenizer.next() != Token.END_ARRAY) {
+            if (length == elements.length) {
+                elements = Arrays.copyOf(elements, length * 2);
+            }
+            elements[length++] = (byte) readInt(tokenizer, Byte.MIN_VALUE, Byte.MAX_VALUE);
+        }
+        return Arrays.copyOf(elements, length);
+    }
+
+    private char[] readCharElements(JsonTokenizer tokenizer) throws IOException {
+        char[] elements = new char[INITIAL_ARRAY_CAPACITY];
+        int length = 0;
+        while (tokenizer.next() != Token.END_ARRAY) {
+            if (length == elements.length) {
+                elements = Arrays.copyOf(elements, length * 2);
+            }
+            elements[length++] = readChar(tokenizer);
+        }
+        return Arrays.copyOf(elements, length);
+    }
+
+    private short[] readShortElements(JsonTokenizer tokenizer) throws IOException {
+        short[] elements = new short[INITIAL_ARRAY_CAPACITY];
+        int length = 0;
+        while (tokenizer.next() != Token.END_ARRAY) {
+            if (length == elements.length) {
+                elements = Arrays.copyOf(elements, length * 2);
+            }
+            elements[length++] = (short) readInt(tokenizer, Short.MIN_VALUE, Short.MAX_VALUE);
+        }
+        return Arrays.copyOf(elements, length);
+    }
+
+    private int[] readIntElements(JsonTokenizer tokenizer) throws IOException {
+        int[] elements = new int[INITIAL_ARRAY_CAPACITY];
+        int length = 0;
+        while (tokenizer.next() != Token.END_ARRAY) {
+            if (length == elements.length) {
+                elements = Arrays.copyOf(elements, length * 2);
+            }
+            elements[length++] = readInt(tokenizer, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
+        return Arrays.copyOf(elements, length);
+    }
+
+    private long[] readLongElements(JsonTokenizer tokenizer) throws IOException {
+        long[] elements = new long[INITIAL_ARRAY_CAPACITY];
+        int length = 0;
+        while (tokenizer.next() != Token.END_ARRAY) {
+            if (length == elements.length) {
+                elements = Arrays.copyOf(elements, length * 2);
+            }
+            elements[length++] = readLong(tokenizer);
+        }
+        return Arrays.copyOf(elements, length);
+    }
+
+    private float[] readFloatElements(JsonTokenizer tokenizer) throws IOException {
+        float[] elements = new float[INITIAL_ARRAY_CAPACITY];
+        int length = 0;
+        while (tokenizer.next() != Token.END_ARRAY) {
+            if (length == elements.length) {
+                elements = Arrays.copyOf(elements, length * 2);
+            }
+            elements[length++] = (float) readDouble(tokenizer);
+        }
+        return Arrays.copyOf(elements, length);
+    }
+
+    private double[] readDoubleElements(JsonTokenizer tokenizer) throws IOException {
+        double[] elements = new double[INITIAL_ARRAY_CAPACITY];
+        int length = 0;
+        while (tokenizer.next() != Token.END_ARRAY) {
+            if (length == elements.length) {
+                elements = Arrays.copyOf(elements, length * 2);
+            }
+            elements[length++] = readDouble(tokenizer);
+        }
+        return Arrays.copyOf(elements, length);
+    }
+
+    private void expectToken(JsonTokenizer tokenizer, Token expected) {
+        if (tokenizer.currentToken() != expected) {
+            throw unexpectedToken(tokenizer, expected.name());
+        }
+    }
+
+    private IllegalArgumentException unexpectedToken(JsonTokenizer tokenizer, String expected) {
+        return new IllegalArgumentException(String.format("Expected %s but found %s", expected, tokenizer.currentToken()));
+    }
+
+}
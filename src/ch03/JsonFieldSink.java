@@ -0,0 +1,79 @@
+package ch03;
+
+import java.io.IOException;
+
+/**
+ * Sink the generated writers write the fields of a single object into.
+ * <p>
+ * Every field is written with a call to {@link #key(String)} followed by one typed write call.
+ * Primitive values are passed without boxing, references that need further dispatch are handed
+ * back to the serializer together with the index of their field in the serialization plan.
+ *
+ * @see GeneratedJsonWriter
+ */
+public final class JsonFieldSink {
+
+    private final JsonSerializer serializer;
+    private final SerializationPlan.FieldPlan[] fields;
+    private final Appendable out;
+    private final int indentSize;
+    private int fieldCount;
+
+    JsonFieldSink(JsonSerializer serializer, SerializationPlan.FieldPlan[] fields, Appendable out, int indentSize) {
+        this.serializer = serializer;
+        this.fields = fields;
+        this.out = out;
+        this.indentSize = indentSize;
+    }
+
+    /**
+     * Starts the next field with the given key, which has to be already quoted
+     */
+    public void key(String quotedKey) throws IOException {
+        serializer.beginField(fieldCount++, quotedKey, indentSize, out);
+    }
+
+    public void writeBoolean(boolean value) throws IOException {
+        serializer.writeBoolean(value, out);
+    }
+
+    public void writeByte(byte value) throws IOException {
+        NumberWriter.writeInt(value, out);
+    }
+
+    public void writeChar(char value) throws IOException {
+        serializer.writeChar(value, out);
+    }
+
+    public void writeShort(short value) throws IOException {
+        NumberWriter.writeInt(value, out);
+    }
+
+    public void writeInt(int value) throws IOException {
+        NumberWriter.writeInt(value, out);
+    }
+
+    public void writeLong(long value) throws IOException {
+        NumberWriter.writeLong(value, out);
+    }
+
+    public void writeFloat(float value) throws IOException {
+        serializer.writeFloat(value, out);
+    }
+
+    public void writeDouble(double value) throws IOException {
+        serializer.writeDouble(value, out);
+    }
+
+    public void writeString(String value) throws IOException {
+        serializer.writeStringValue(value, out);
+    }
+
+    /**
+     * Writes a reference value of the field with the given index in the serialization plan
+     */
+    public void writeReference(Object value, int fieldIndex) throws IOException {
+        serializer.writeReferenceField(fields[fieldIndex], value, indentSize, out);
+    }
+
+}
@@ -1,10 +1,36 @@
 package ch03;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Array;
-import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Basic JSON Serializer Implementation
+ * <p>
+ * The serializer writes tokens straight to an {@link Appendable} sink. Nested objects and arrays
+ * are written into the same sink as their parent, so a document is never copied between
+ * intermediate strings and can be streamed out while it is still being serialized.
+ * <p>
+ * Primitive fields and primitive arrays are read and written through type-specialized paths,
+ * so numbers are never boxed and are formatted without a {@code Formatter}.
+ * <p>
+ * Collections are written as arrays, maps as objects, enums by their name and {@code java.time}
+ * values as ISO-8601 strings. The writer of a field is chosen by the category of its declared type;
+ * only fields declared as a supertype, like {@code Object}, are dispatched on their runtime type.
  */
 public class JsonSerializer {
 
@@ -12,8 +38,39 @@ public class JsonSerializer {
     private static final String END_OBJECT = "}";
     private static final String START_ARRAY = "[";
     private static final String END_ARRAY = "]";
+    private static final String NULL_VALUE = "null";
 
-    public static void main(String[] args) throws IllegalAccessException {
+    /**
+     * Decimal precision that writes the shortest representation of a float or double which still round-trips
+     */
+    public static final int SHORTEST_DECIMAL_PRECISION = NumberWriter.SHORTEST_PRECISION;
+
+    private static final int DEFAULT_DECIMAL_PRECISION = 2;
+
+    // Line break followed by the indentation of each level, precomputed for the common nesting depths
+    private static final String[] INDENTATIONS = new String[32];
+
+    static {
+        for (int i = 0; i < INDENTATIONS.length; i++) {
+            INDENTATIONS[i] = createIndentation(i);
+        }
+    }
+
+    // Classes whose plans and the plans of their nested object fields were all resolved successfully
+    private static final ClassValue<Boolean> SERIALIZABLE_TYPES = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            resolvePlans(type, new HashSet<>());
+            return true;
+        }
+    };
+
+    private final int decimalPrecision;
+    private final boolean generatedWriters;
+    private final boolean compact;
+    private final int parallelArrayThreshold;
+
+    public static void main(String[] args) throws IOException {
         // Book model for testing serializer
         record Book(String name, int pages, String[] genres) {}
         Book book = new Book("The Lord of The Rings", 1216, new String[] {"Fantasy", "Classic", "Adventure"});
@@ -21,92 +78,611 @@ public class JsonSerializer {
         JsonSerializer jsonSerializer = new JsonSerializer();
         String json = jsonSerializer.objectToJson(book, 0);
         System.out.println(json);
+
+        // Streaming the same document as UTF-8 bytes
+        OutputStream stdout = System.out;
+        jsonSerializer.objectToJson(book, stdout);
+        System.out.println();
+
+        // Telemetry model with primitive arrays, written with the shortest number representation
+        record Telemetry(long timestamp, float temperature, double[] samples) {}
+        Telemetry telemetry = new Telemetry(1700000000000L, 21.5f, new double[] {0.125, -3.0, 1e-4});
+
+        JsonSerializer preciseSerializer = JsonSerializer.builder()
+                .decimalPrecision(SHORTEST_DECIMAL_PRECISION)
+                .build();
+        System.out.println(preciseSerializer.objectToJson(telemetry, 0));
+
+        // Same Book model, serialized through a writer class generated for it
+        JsonSerializer generatingSerializer = JsonSerializer.builder()
+                .generatedWriters(true)
+                .build();
+        System.out.println(generatingSerializer.objectToJson(book, 0));
+
+        // Same Book model, without any whitespace
+        JsonSerializer compactSerializer = JsonSerializer.builder()
+                .compact(true)
+                .build();
+        System.out.println(compactSerializer.objectToJson(book, 0));
+
+        // Library model with JDK types, written by their dedicated writers
+        enum Format {HARDCOVER, PAPERBACK, EBOOK}
+        record Library(List<Book> books, Map<Format, Integer> stock, Optional<String> owner, LocalDate opened) {}
+        Library library = new Library(List.of(book), Map.of(Format.HARDCOVER, 3), Optional.empty(), LocalDate.of(1954, 7, 29));
+        System.out.println(jsonSerializer.objectToJson(library, 0));
+    }
+
+    public JsonSerializer() {
+        this(builder());
+    }
+
+    private JsonSerializer(Builder builder) {
+        this.decimalPrecision = builder.decimalPrecision;
+        this.generatedWriters = builder.generatedWriters;
+        this.compact = builder.compact;
+        this.parallelArrayThreshold = builder.parallelArrayThreshold;
+    }
+
+    public static Builder builder() {
+        return new Builder();
     }
 
-    public String objectToJson(Object object, int indentSize) throws IllegalAccessException {
+    public String objectToJson(Object object, int indentSize) {
+        StringBuilder json = new StringBuilder();
+        try {
+            writeObject(object, indentSize, json);
+        } catch (IOException ex) {
+            // StringBuilder never throws IOException
+            throw new UncheckedIOException(ex);
+        }
+        return json.toString();
+    }
+
+    /**
+     * Serializes the given object directly into the given sink
+     */
+    public void objectToJson(Object object, Appendable out) throws IOException {
+        writeObject(object, 0, out);
+    }
+
+    /**
+     * Serializes the given object directly into the given stream as UTF-8 encoded bytes.
+     * The stream is flushed but not closed.
+     */
+    public void objectToJson(Object object, OutputStream out) throws IOException {
+        Utf8Writer writer = new Utf8Writer(out);
+        writeObject(object, 0, writer);
+        writer.flush();
+    }
+
+    /**
+     * Resolves the serialization plans of the given class and of the declared types of its nested object and array
+     * fields, so a class that cannot be serialized is rejected before anything is written. {@code Object}, interfaces
+     * and abstract classes are skipped, as only the runtime type of their values can be checked.
+     *
+     * @throws IllegalArgumentException if the class or one of its nested fields cannot be serialized
+     */
+    public static void requireSerializable(Class<?> type) {
+        SERIALIZABLE_TYPES.get(type);
+    }
+
+    private static void resolvePlans(Class<?> type, Set<Class<?>> visited) {
+        boolean supertype = !type.isArray() && !type.isPrimitive()
+                && (type == Object.class || type.isInterface() || Modifier.isAbstract(type.getModifiers()));
+        if (supertype || !visited.add(type)) {
+            return;
+        }
+
+        SerializationPlan plan = SerializationPlan.of(type);
+        if (plan.componentCategory() == SerializationPlan.Category.OBJECT || plan.componentCategory() == SerializationPlan.Category.ARRAY) {
+            resolvePlans(plan.componentType(), visited);
+        }
+        for (SerializationPlan.FieldPlan field : plan.fields()) {
+            if (field.category() == SerializationPlan.Category.OBJECT || field.category() == SerializationPlan.Category.ARRAY) {
+                resolvePlans(field.type(), visited);
+            }
+        }
+    }
+
+    private void writeObject(Object object, int indentSize, Appendable out) throws IOException {
         if (object == null) {
             throw new IllegalArgumentException("Object cannot be null");
         }
 
-        StringBuilder json = new StringBuilder();
-        json.append(START_OBJECT).append("\n");
+        out.append(START_OBJECT);
 
-        Field[] fields = object.getClass().getDeclaredFields();
-        for (int i = 0; i < fields.length; i++) {
-            Field field = fields[i];
-            field.setAccessible(true);
+        Class<?> objectClass = object.getClass();
+        SerializationPlan.FieldPlan[] fields = SerializationPlan.of(objectClass).fields();
+        Optional<GeneratedJsonWriter> generatedWriter = generatedWriters ? JsonWriterGenerator.writerOf(objectClass) : Optional.empty();
 
-            if (field.isSynthetic()) {
-                continue;
+        if (generatedWriter.isPresent()) {
+            JsonFieldSink sink = new JsonFieldSink(this, fields, out, indentSize);
+            generatedWriter.get().writeFields(object, sink);
+        } else {
+            for (int i = 0; i < fields.length; i++) {
+                SerializationPlan.FieldPlan field = fields[i];
+                beginField(i, field.quotedName(), indentSize, out);
+                writeFieldValue(field, object, indentSize, out);
             }
+        }
 
-            json.append(indent(indentSize + 1));
-            json.append(formatStringValue(field.getName())).append(":");
+        endObject(indentSize, out);
+    }
+
+    /**
+     * Starts tracking the given object for incremental snapshots, written with the given indentation level
+     */
+    public JsonSnapshotTracker track(Object object, int indentSize) {
+        if (object == null) {
+            throw new IllegalArgumentException("Object cannot be null");
+        }
+        return new JsonSnapshotTracker(this, object, indentSize);
+    }
+
+    /***** Helper Methods *****/
+
+    /**
+     * Starts a new line at the given indentation level, compact output has no line breaks at all
+     */
+    private void newLine(int indentSize, Appendable out) throws IOException {
+        if (compact) {
+            return;
+        }
+        out.append(indentSize < INDENTATIONS.length ? INDENTATIONS[indentSize] : createIndentation(indentSize));
+    }
+
+    private static String createIndentation(int indentSize) {
+        return "\n" + "\t".repeat(Math.max(0, indentSize));
+    }
+
+    /**
+     * Writes the separator, indentation and key that precede the field at the given index
+     */
+    void beginField(int index, String quotedName, int indentSize, Appendable out) throws IOException {
+        if (index != 0) {
+            out.append(',');
+        }
+        newLine(indentSize + 1, out);
+        out.append(quotedName).append(':');
+    }
+
+    /**
+     * Writes the value of the given field of the given object, primitives are read and written without boxing
+     */
+    void writeFieldValue(SerializationPlan.FieldPlan field, Object object, int indentSize, Appendable out) throws IOException {
+        switch (field.category()) {
+            case BOOLEAN -> writeBoolean(field.getBoolean(object), out);
+            case BYTE -> NumberWriter.writeInt(field.getByte(object), out);
+            case CHAR -> writeChar(field.getChar(object), out);
+            case SHORT -> NumberWriter.writeInt(field.getShort(object), out);
+            case INT -> NumberWriter.writeInt(field.getInt(object), out);
+            case LONG -> NumberWriter.writeLong(field.getLong(object), out);
+            case FLOAT -> writeFloat(field.getFloat(object), out);
+            case DOUBLE -> writeDouble(field.getDouble(object), out);
+            default -> writeReferenceField(field, field.get(object), indentSize, out);
+        }
+    }
+
+    /**
+     * Writes the line break and brace that close an object at the given indentation level
+     */
+    void endObject(int indentSize, Appendable out) throws IOException {
+        newLine(indentSize, out);
+        out.append(END_OBJECT);
+    }
+
+    /**
+     * Writes a value of a field that is not a primitive
+     */
+    void writeReferenceField(SerializationPlan.FieldPlan field, Object value, int indentSize, Appendable out) throws IOException {
+        writeNestedValue(field.category(), value, indentSize + 1, out);
+    }
+
+    /**
+     * Writes a reference value of the given category, which is nested at the given indentation level
+     */
+    private void writeNestedValue(SerializationPlan.Category category, Object value, int indentSize, Appendable out) throws IOException {
+        if (value == null) {
+            out.append(NULL_VALUE);
+            return;
+        }
+
+        switch (category) {
+            case STRING -> writeStringValue((String) value, out);
+            case ARRAY -> writeArrayValue(value, indentSize, out);
+            case BOXED, NUMBER -> writeBoxedValue(value, out);
+            case ENUM -> writeStringValue(((Enum<?>) value).name(), out);
+            case TEMPORAL -> writeStringValue(value.toString(), out);
+            case COLLECTION -> writeCollectionValue((Collection<?>) value, indentSize, out);
+            case MAP -> writeMapValue((Map<?, ?>) value, indentSize, out);
+            case OPTIONAL -> writeOptionalValue(value, indentSize, out);
+            default -> writeObjectValue(value, indentSize, out);
+        }
+    }
+
+    void writeBoolean(boolean value, Appendable out) throws IOException {
+        out.append(value ? "true" : "false");
+    }
+
+    void writeChar(char value, Appendable out) throws IOException {
+        writeStringValue(String.valueOf(value), out);
+    }
+
+    void writeFloat(float value, Appendable out) throws IOException {
+        NumberWriter.writeFloat(value, decimalPrecision, out);
+    }
+
+    void writeDouble(double value, Appendable out) throws IOException {
+        NumberWriter.writeDouble(value, decimalPrecision, out);
+    }
+
+    /**
+     * Writes a value whose declared type is a model type or a supertype like {@code Object},
+     * dispatching on the category of its runtime type
+     */
+    private void writeObjectValue(Object value, int indentSize, Appendable out) throws IOException {
+        if (value == null) {
+            out.append(NULL_VALUE);
+            return;
+        }
+
+        SerializationPlan.Category category = SerializationPlan.categoryOf(value.getClass());
+        if (category == SerializationPlan.Category.OBJECT) {
+            writeObject(value, indentSize, out);
+        } else {
+            writeNestedValue(category, value, indentSize, out);
+        }
+    }
 
-            Class<?> fieldType = field.getType();
-            Object fieldInstance = field.get(object);
+    private void writeBoxedValue(Object value, Appendable out) throws IOException {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            NumberWriter.writeInt(((Number) value).intValue(), out);
+        } else if (value instanceof Long longValue) {
+            NumberWriter.writeLong(longValue, out);
+        } else if (value instanceof Double doubleValue) {
+            writeDouble(doubleValue, out);
+        } else if (value instanceof Float floatValue) {
+            writeFloat(floatValue, out);
+        } else if (value instanceof Boolean booleanValue) {
+            writeBoolean(booleanValue, out);
+        } else if (value instanceof Character charValue) {
+            writeChar(charValue, out);
+        } else {
+            // Arbitrary precision numbers print themselves as valid JSON numbers
+            out.append(value.toString());
+        }
+    }
 
-            if (fieldType == String.class) {
-                json.append(formatStringValue(fieldInstance.toString()));
-            } else if (fieldType.isPrimitive()) {
-                json.append(formatPrimitiveValue(fieldInstance, fieldType));
-            } else if (fieldType.isArray()) {
-                json.append(formatArrayValue(fieldInstance, indentSize + 1));
+    private void writeOptionalValue(Object optional, int indentSize, Appendable out) throws IOException {
+        if (optional instanceof Optional<?> value) {
+            writeObjectValue(value.orElse(null), indentSize, out);
+        } else if (optional instanceof OptionalInt value) {
+            if (value.isPresent()) {
+                NumberWriter.writeInt(value.getAsInt(), out);
             } else {
-                json.append(objectToJson(fieldInstance, indentSize + 1));
+                out.append(NULL_VALUE);
+            }
+        } else if (optional instanceof OptionalLong value) {
+            if (value.isPresent()) {
+                NumberWriter.writeLong(value.getAsLong(), out);
+            } else {
+                out.append(NULL_VALUE);
+            }
+        } else {
+            OptionalDouble value = (OptionalDouble) optional;
+            if (value.isPresent()) {
+                writeDouble(value.getAsDouble(), out);
+            } else {
+                out.append(NULL_VALUE);
+            }
+        }
+    }
+
+    /**
+     * Writes the collection as an array, laid out exactly like an array of the same elements
+     */
+    private void writeCollectionValue(Collection<?> collection, int indentSize, Appendable out) throws IOException {
+        out.append(START_ARRAY);
+        int index = 0;
+        for (Object element : collection) {
+            beginArrayElement(index++, indentSize, out);
+            writeElement(element == null ? SerializationPlan.Category.OBJECT : SerializationPlan.categoryOf(element.getClass()),
+                    element, indentSize, out);
+        }
+        newLine(indentSize, out);
+        out.append(END_ARRAY);
+    }
+
+    /**
+     * Writes the map as an object, with the string form of every key as field name
+     */
+    private void writeMapValue(Map<?, ?> map, int indentSize, Appendable out) throws IOException {
+        out.append(START_OBJECT);
+        int index = 0;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (index++ != 0) {
+                out.append(',');
+            }
+            newLine(indentSize + 1, out);
+            Object key = entry.getKey();
+            writeStringValue(key instanceof Enum<?> enumKey ? enumKey.name() : String.valueOf(key), out);
+            out.append(':');
+            writeObjectValue(entry.getValue(), indentSize + 1, out);
+        }
+        newLine(indentSize, out);
+        out.append(END_OBJECT);
+    }
+
+    /**
+     * Writes the given string in quotes, escaping the characters JSON does not allow in a string
+     */
+    void writeStringValue(String value, Appendable out) throws IOException {
+        if (value == null) {
+            out.append(NULL_VALUE);
+            return;
+        }
+
+        out.append('"');
+        int unescapedFrom = 0;
+        for (int i = 0, len = value.length(); i < len; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
             }
 
-            if (i != fields.length - 1) {
-                json.append(",");
+            out.append(value, unescapedFrom, i);
+            unescapedFrom = i + 1;
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                case '\b' -> out.append("\\b");
+                case '\f' -> out.append("\\f");
+                default -> out.append(String.format("\\u%04x", (int) c));
             }
-            json.append("\n");
         }
+        out.append(value, unescapedFrom, value.length()).append('"');
+    }
+
+    private void writeArrayValue(Object arrayInstance, int indentSize, Appendable out) throws IOException {
+        if (arrayInstance == null) {
+            out.append(NULL_VALUE);
+            return;
+        }
+
+        SerializationPlan arrayPlan = SerializationPlan.of(arrayInstance.getClass());
+        int lengthOfArray = Array.getLength(arrayInstance);
+        out.append(START_ARRAY);
 
-        return json.append(indent(indentSize)).append(END_OBJECT).toString();
+        if (parallelArrayThreshold > 0 && lengthOfArray >= parallelArrayThreshold) {
+            writeElementsInParallel(arrayInstance, arrayPlan, lengthOfArray, indentSize, out);
+        } else {
+            writeElements(arrayInstance, arrayPlan, 0, lengthOfArray, indentSize, out);
+        }
+
+        newLine(indentSize, out);
+        out.append(END_ARRAY);
     }
 
-    /***** Helper Methods *****/
+    /**
+     * Writes the array elements in the given index range
+     */
+    private void writeElements(Object arrayInstance, SerializationPlan arrayPlan, int from, int to, int indentSize, Appendable out) throws IOException {
+        switch (arrayPlan.componentCategory()) {
+            case BOOLEAN -> writeBooleanElements((boolean[]) arrayInstance, from, to, indentSize, out);
+            case BYTE -> writeByteElements((byte[]) arrayInstance, from, to, indentSize, out);
+            case CHAR -> writeCharElements((char[]) arrayInstance, from, to, indentSize, out);
+            case SHORT -> writeShortElements((short[]) arrayInstance, from, to, indentSize, out);
+            case INT -> writeIntElements((int[]) arrayInstance, from, to, indentSize, out);
+            case LONG -> writeLongElements((long[]) arrayInstance, from, to, indentSize, out);
+            case FLOAT -> writeFloatElements((float[]) arrayInstance, from, to, indentSize, out);
+            case DOUBLE -> writeDoubleElements((double[]) arrayInstance, from, to, indentSize, out);
+            default -> writeReferenceElements((Object[]) arrayInstance, arrayPlan.componentCategory(), from, to, indentSize, out);
+        }
+    }
+
+    /**
+     * Splits the array into chunks of {@code parallelArrayThreshold} elements, serializes every chunk
+     * into its own buffer in a fork/join task and writes the buffers in order. Since every element is
+     * written exactly as on the serial path, the output is identical to the serial output.
+     */
+    private void writeElementsInParallel(Object arrayInstance, SerializationPlan arrayPlan, int lengthOfArray, int indentSize, Appendable out) throws IOException {
+        int numberOfChunks = (lengthOfArray + parallelArrayThreshold - 1) / parallelArrayThreshold;
+        StringBuilder[] chunks = new StringBuilder[numberOfChunks];
+
+        ForkJoinPool.commonPool().invoke(new ChunkSerializationTask(arrayInstance, arrayPlan, indentSize, chunks, 0, numberOfChunks));
+        for (StringBuilder chunk : chunks) {
+            out.append(chunk);
+        }
+    }
 
-    private String indent(int indentSize) {
-        return "\t".repeat(Math.max(0, indentSize));
+    /**
+     * Writes the separator and indentation that precedes the array element at the given index
+     */
+    private void beginArrayElement(int index, int indentSize, Appendable out) throws IOException {
+        if (index != 0) {
+            out.append(',');
+        }
+        newLine(indentSize + 2, out);
     }
 
-    private String formatStringValue(String fieldName) {
-        return String.format("\"%s\"", fieldName);
+    private void writeReferenceElements(Object[] array, SerializationPlan.Category category, int from, int to, int indentSize, Appendable out) throws IOException {
+        for (int i = from; i < to; i++) {
+            beginArrayElement(i, indentSize, out);
+            writeElement(category, array[i], indentSize, out);
+        }
     }
 
-    private String formatPrimitiveValue(Object fieldInstance, Class<?> fieldType) {
-        if (fieldType == float.class || fieldType == double.class) {
-            return String.format("%.02f", (double) fieldInstance);
+    /**
+     * Writes a single element of an array or collection with the given indentation level
+     */
+    private void writeElement(SerializationPlan.Category category, Object element, int indentSize, Appendable out) throws IOException {
+        if (category == SerializationPlan.Category.ARRAY || category == SerializationPlan.Category.COLLECTION) {
+            writeNestedValue(category, element, indentSize + 2, out);
         } else {
-            return fieldInstance.toString();
+            writeNestedValue(category, element, indentSize, out);
         }
     }
 
-    private String formatArrayValue(Object arrayInstance, int indentSize) throws IllegalAccessException {
-        int lengthOfArray = Array.getLength(arrayInstance);
-        Class<?> arrayClass = arrayInstance.getClass();
-        Class<?> componentTypeOfArray = arrayClass.getComponentType();
-
-        StringBuilder arrayJson = new StringBuilder().append(START_ARRAY).append("\n");
-        for (int i = 0; i < lengthOfArray; i++) {
-            Object arrayElement = Array.get(arrayInstance, i);
-            arrayJson.append(indent(indentSize + 2));
-            if (componentTypeOfArray == String.class) {
-                arrayJson.append(formatStringValue(arrayElement.toString()));
-            } else if (componentTypeOfArray.isPrimitive()) {
-                arrayJson.append(formatPrimitiveValue(arrayElement, componentTypeOfArray));
-            } else {
-                arrayJson.append(objectToJson(arrayElement, indentSize));
+    private void writeBooleanElements(boolean[] array, int from, int to, int indentSize, Appendable out) throws IOException {
+        for (int i = from; i < to; i++) {
+            beginArrayElement(i, indentSize, out);
+            writeBoolean(array[i], out);
+        }
+    }
+
+    private void writeByteElements(byte[] array, int from, int to, int indentSize, Appendable out) throws IOException {
+        for (int i = from; i < to; i++) {
+            beginArrayElement(i, indentSize, out);
+            NumberWriter.writeInt(array[i], out);
+        }
+    }
+
+    private void writeCharElements(char[] array, int from, int to, int indentSize, Appendable out) throws IOException {
+        for (int i = from; i < to; i++) {
+            beginArrayElement(i, indentSize, out);
+            writeChar(array[i], out);
+        }
+    }
+
+    private void writeShortElements(short[] array, int from, int to, int indentSize, Appendable out) throws IOException {
+        for (int i = from; i < to; i++) {
+            beginArrayElement(i, indentSize, out);
+            NumberWriter.writeInt(array[i], out);
+        }
+    }
+
+    private void writeIntElements(int[] array, int from, int to, int indentSize, Appendable out) throws IOException {
+        for (int i = from; i < to; i++) {
+            beginArrayElement(i, indentSize, out);
+            NumberWriter.writeInt(array[i], out);
+        }
+    }
+
+    private void writeLongElements(long[] array, int from, int to, int indentSize, Appendable out) throws IOException {
+        for (int i = from; i < to; i++) {
+            beginArrayElement(i, indentSize, out);
+            NumberWriter.writeLong(array[i], out);
+        }
+    }
+
+    private void writeFloatElements(float[] array, int from, int to, int indentSize, Appendable out) throws IOException {
+        for (int i = from; i < to; i++) {
+            beginArrayElement(i, indentSize, out);
+            writeFloat(array[i], out);
+        }
+    }
+
+    private void writeDoubleElements(double[] array, int from, int to, int indentSize, Appendable out) throws IOException {
+        for (int i = from; i < to; i++) {
+            beginArrayElement(i, indentSize, out);
+            writeDouble(array[i], out);
+        }
+    }
+
+    /**
+     * Serializes a range of array chunks, splitting the range until a single chunk is left
+     */
+    // Fork/join tasks are Serializable by inheritance only, this one is never serialized
+    @SuppressWarnings("serial")
+    private class ChunkSerializationTask extends RecursiveAction {
+
+        private final Object arrayInstance;
+        private final SerializationPlan arrayPlan;
+        private final int indentSize;
+        private final StringBuilder[] chunks;
+        private final int fromChunk;
+        private final int toChunk;
+
+        private ChunkSerializationTask(Object arrayInstance, SerializationPlan arrayPlan, int indentSize,
+                                       StringBuilder[] chunks, int fromChunk, int toChunk) {
+            this.arrayInstance = arrayInstance;
+            this.arrayPlan = arrayPlan;
+            this.indentSize = indentSize;
+            this.chunks = chunks;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (toChunk - fromChunk > 1) {
+                int middleChunk = (fromChunk + toChunk) >>> 1;
+                invokeAll(
+                        new ChunkSerializationTask(arrayInstance, arrayPlan, indentSize, chunks, fromChunk, middleChunk),
+                        new ChunkSerializationTask(arrayInstance, arrayPlan, indentSize, chunks, middleChunk, toChunk)
+                );
+                return;
             }
 
-            if (i != lengthOfArray - 1) {
-                arrayJson.append(",");
+            int from = fromChunk * parallelArrayThreshold;
+            int to = Math.min(from + parallelArrayThreshold, Array.getLength(arrayInstance));
+            StringBuilder chunk = new StringBuilder();
+            try {
+                writeElements(arrayInstance, arrayPlan, from, to, indentSize, chunk);
+            } catch (IOException ex) {
+                // StringBuilder never throws IOException
+                throw new UncheckedIOException(ex);
             }
-            arrayJson.append("\n");
+            chunks[fromChunk] = chunk;
+        }
+
+    }
+
+    public static class Builder {
+
+        private int decimalPrecision = DEFAULT_DECIMAL_PRECISION;
+        private boolean generatedWriters;
+        private boolean compact;
+        private int parallelArrayThreshold;
+
+        /**
+         * Sets the number of fractional digits written for float and double values.
+         * Use {@link #SHORTEST_DECIMAL_PRECISION} to write the shortest representation that still round-trips.
+         */
+        public Builder decimalPrecision(int decimalPrecision) {
+            NumberWriter.checkPrecision(decimalPrecision);
+            this.decimalPrecision = decimalPrecision;
+            return this;
+        }
+
+        /**
+         * Enables serializers generated at runtime for every model type on first use.
+         * Types for which no class can be defined are serialized through the reflective path.
+         */
+        public Builder generatedWriters(boolean generatedWriters) {
+            this.generatedWriters = generatedWriters;
+            return this;
+        }
+
+        /**
+         * Enables compact output without any whitespace, e.g. for machine-to-machine traffic.
+         * By default, documents are pretty-printed with line breaks and tab indentation.
+         */
+        public Builder compact(boolean compact) {
+            this.compact = compact;
+            return this;
+        }
+
+        /**
+         * Enables parallel serialization of arrays with at least the given number of elements.
+         * Such arrays are split into chunks of this size, which are serialized concurrently in the
+         * common fork/join pool and joined in order. A threshold of 0 disables parallel serialization.
+         */
+        public Builder parallelArrayThreshold(int parallelArrayThreshold) {
+            if (parallelArrayThreshold < 0) {
+                throw new IllegalArgumentException("Parallel array threshold cannot be negative");
+            }
+            this.parallelArrayThreshold = parallelArrayThreshold;
+            return this;
+        }
+
+        public JsonSerializer build() {
+            return new JsonSerializer(this);
         }
 
-        return arrayJson.append(indent(indentSize)).append(END_ARRAY).toString();
     }
 
 }
@@ -0,0 +1,80 @@
+package ch03;
+
+import java.io.IOException;
+
+/**
+ * Compares the throughput of the reflective serializer with the serializer that uses generated writers.
+ * <p>
+ * Every mode is measured in warmup and measurement iterations, in the spirit of a JMH
+ * benchmark. The documents are written into a reused StringBuilder, so the results show the cost
+ * of the traversal itself and not the cost of growing the output.
+ */
+public class JsonSerializerBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASUREMENT_ITERATIONS = 5;
+    private static final long ITERATION_TIME_NS = 1_000_000_000L;
+
+    // Models for benchmarking serializer
+    record Author(String name, int birthYear, boolean isAlive) {}
+
+    record Book(String name, int pages, double price, long isbn, String[] genres, Author author) {}
+
+    public static void main(String[] args) throws IOException {
+        Book book = new Book(
+                "The Lord of The Rings", 1216, 24.99, 9780544003415L,
+                new String[] {"Fantasy", "Classic", "Adventure"},
+                new Author("J. R. R. Tolkien", 1892, false)
+        );
+
+        JsonSerializer reflectiveSerializer = new JsonSerializer();
+        JsonSerializer generatedSerializer = JsonSerializer.builder()
+                .generatedWriters(true)
+                .build();
+
+        System.out.printf("Generated writer available for %s: %b\n",
+                Book.class.getSimpleName(),
+                JsonWriterGenerator.writerOf(Book.class).isPresent());
+
+        double reflectiveOpsPerSecond = measure("reflective", reflectiveSerializer, book);
+        double generatedOpsPerSecond = measure("generated", generatedSerializer, book);
+        System.out.printf("Generated writers are %.2fx the throughput of the reflective path\n",
+                generatedOpsPerSecond / reflectiveOpsPerSecond);
+    }
+
+    private static double measure(String mode, JsonSerializer serializer, Object object) throws IOException {
+        StringBuilder json = new StringBuilder(1024);
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            runIteration(serializer, object, json);
+        }
+
+        double totalOpsPerSecond = 0;
+        for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+            double opsPerSecond = runIteration(serializer, object, json);
+            totalOpsPerSecond += opsPerSecond;
+            System.out.printf("> %-10s iteration %d: %,.0f ops/s\n", mode, i + 1, opsPerSecond);
+        }
+
+        double averageOpsPerSecond = totalOpsPerSecond / MEASUREMENT_ITERATIONS;
+        System.out.printf("%-10s average: %,.0f ops/s\n\n", mode, averageOpsPerSecond);
+        return averageOpsPerSecond;
+    }
+
+    private static double runIteration(JsonSerializer serializer, Object object, StringBuilder json) throws IOException {
+        long operations = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < 1_000; i++) {
+                json.setLength(0);
+                serializer.objectToJson(object, json);
+            }
+            operations += 1_000;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < ITERATION_TIME_NS);
+
+        return operations * 1e9 / elapsed;
+    }
+
+}
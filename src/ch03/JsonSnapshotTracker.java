@@ -0,0 +1,215 @@
+package ch03;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Incremental JSON snapshots of a long-lived object, created by {@link JsonSerializer#track(Object, int)}
+ * <p>
+ * The tracker keeps the serialized fragment of every field from the previous snapshot together with
+ * the value it was written from. On the next snapshot, primitive fields are compared by value and
+ * reference fields by identity; only fields that changed are serialized again and the document is
+ * spliced together from the fragments. A snapshot of an unchanged object returns the previous
+ * document without writing anything.
+ * <p>
+ * Since references are compared by identity, changes made inside a mutable field value, like adding
+ * an element to a list, are not detected. Such fields have to be marked with {@link #markDirty(String)}.
+ * <p>
+ * Trackers are not thread-safe; every tracker is meant to be used by one snapshotting thread.
+ */
+public final class JsonSnapshotTracker {
+
+    private static final String NO_CHANGES = "[]";
+
+    private final JsonSerializer serializer;
+    private final Object object;
+    private final int indentSize;
+    private final SerializationPlan.FieldPlan[] fields;
+
+    // Separators and keys that precede every field, and the closing brace of the object
+    private final String[] fieldPrefixes;
+    private final String objectSuffix;
+
+    // Fragments of the last snapshot, with the values they were written from
+    private final String[] fragments;
+    private final long[] primitiveValues;
+    private final Object[] referenceValues;
+    private final boolean[] dirty;
+    private String document;
+    private boolean documentStale;
+
+    public static void main(String[] args) {
+        // Auction state model for testing snapshots
+        class AuctionState {
+            String item = "Vintage Camera";
+            int highestPrice = 100;
+            String highestBidder = "Alice";
+            boolean running = true;
+        }
+        AuctionState state = new AuctionState();
+
+        JsonSnapshotTracker tracker = JsonSerializer.builder().compact(true).build().track(state, 0);
+        System.out.println(tracker.snapshot());
+
+        state.highestPrice = 120;
+        state.highestBidder = "Bob";
+        System.out.println(tracker.delta());
+        System.out.println(tracker.delta());
+
+        state.running = false;
+        System.out.println(tracker.delta());
+        System.out.println(tracker.snapshot());
+    }
+
+    JsonSnapshotTracker(JsonSerializer serializer, Object object, int indentSize) {
+        this.serializer = serializer;
+        this.object = object;
+        this.indentSize = indentSize;
+        this.fields = SerializationPlan.of(object.getClass()).fields();
+        this.fieldPrefixes = new String[fields.length];
+        this.fragments = new String[fields.length];
+        this.primitiveValues = new long[fields.length];
+        this.referenceValues = new Object[fields.length];
+        this.dirty = new boolean[fields.length];
+
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                StringBuilder prefix = new StringBuilder();
+                serializer.beginField(i, fields[i].quotedName(), indentSize, prefix);
+                fieldPrefixes[i] = prefix.toString();
+            }
+            StringBuilder suffix = new StringBuilder();
+            serializer.endObject(indentSize, suffix);
+            this.objectSuffix = suffix.toString();
+        } catch (IOException ex) {
+            // StringBuilder never throws IOException
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Returns the full document of the tracked object, serializing only the fields that changed since
+     * the previous snapshot or delta
+     */
+    public String snapshot() {
+        if (refresh(null) || document == null || documentStale) {
+            int length = 1 + objectSuffix.length();
+            for (int i = 0; i < fields.length; i++) {
+                length += fieldPrefixes[i].length() + fragments[i].length();
+            }
+
+            StringBuilder json = new StringBuilder(length).append('{');
+            for (int i = 0; i < fields.length; i++) {
+                json.append(fieldPrefixes[i]).append(fragments[i]);
+            }
+            document = json.append(objectSuffix).toString();
+            documentStale = false;
+        }
+        return document;
+    }
+
+    /**
+     * Returns the changes since the previous snapshot or delta as a JSON Patch document, with a
+     * {@code replace} operation per changed field. The first delta replaces the whole document.
+     */
+    public String delta() {
+        if (document == null) {
+            return "[{\"op\":\"replace\",\"path\":\"\",\"value\":" + snapshot() + "}]";
+        }
+
+        StringBuilder patch = new StringBuilder();
+        if (!refresh(patch)) {
+            return NO_CHANGES;
+        }
+        // The document is rebuilt from the fresh fragments on the next snapshot
+        documentStale = true;
+        return patch.append(']').toString();
+    }
+
+    /**
+     * Forces the given field to be serialized again on the next snapshot, e.g. after an element was
+     * added to a collection it holds
+     */
+    public void markDirty(String fieldName) {
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].name().equals(fieldName)) {
+                dirty[i] = true;
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Field not found: " + fieldName);
+    }
+
+    /**
+     * Forces all fields to be serialized again on the next snapshot
+     */
+    public void markAllDirty() {
+        Arrays.fill(dirty, true);
+    }
+
+    /***** Helper Methods *****/
+
+    /**
+     * Serializes the changed fields into their fragments and appends a patch operation for each of
+     * them to the given patch, if there is one. Returns whether any field changed.
+     */
+    private boolean refresh(StringBuilder patch) {
+        boolean changed = false;
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                SerializationPlan.FieldPlan field = fields[i];
+                boolean isPrimitive = field.type().isPrimitive();
+                long primitiveValue = isPrimitive ? primitiveValueOf(field) : 0;
+                Object referenceValue = isPrimitive ? null : field.get(object);
+
+                boolean fieldChanged = fragments[i] == null || dirty[i] || (isPrimitive
+                        ? primitiveValue != primitiveValues[i]
+                        : referenceValue != referenceValues[i]);
+                if (!fieldChanged) {
+                    continue;
+                }
+
+                StringBuilder fragment = new StringBuilder();
+                if (isPrimitive) {
+                    serializer.writeFieldValue(field, object, indentSize, fragment);
+                } else {
+                    serializer.writeReferenceField(field, referenceValue, indentSize, fragment);
+                }
+                fragments[i] = fragment.toString();
+                primitiveValues[i] = primitiveValue;
+                referenceValues[i] = referenceValue;
+                dirty[i] = false;
+
+                if (patch != null) {
+                    patch.append(changed ? ',' : '[')
+                            .append("{\"op\":\"replace\",\"path\":\"/").append(field.name())
+                            .append("\",\"value\":").append(fragments[i]).append('}');
+                }
+                changed = true;
+            }
+        } catch (IOException ex) {
+            // StringBuilder never throws IOException
+            throw new UncheckedIOException(ex);
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the bits of a primitive field value, so that values of every type compare with {@code ==}
+     */
+    private long primitiveValueOf(SerializationPlan.FieldPlan field) {
+        return switch (field.category()) {
+            case BOOLEAN -> field.getBoolean(object) ? 1 : 0;
+            case BYTE -> field.getByte(object);
+            case CHAR -> field.getChar(object);
+            case SHORT -> field.getShort(object);
+            case INT -> field.getInt(object);
+            case LONG -> field.getLong(object);
+            case FLOAT -> Float.floatToRawIntBits(field.getFloat(object));
+            case DOUBLE -> Double.doubleToRawLongBits(field.getDouble(object));
+            default -> throw new IllegalStateException("Field is not a primitive: " + field.name());
+        };
+    }
+
+}
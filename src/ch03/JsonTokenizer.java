@@ -0,0 +1,529 @@
+package ch03;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Pull-based JSON tokenizer over a {@link Reader} or a UTF-8 encoded {@link ByteBuffer}.
+ * <p>
+ * Every call to {@link #next()} returns the next token of the document. The content of string
+ * values is read lazily: it is only materialized when {@link #text()} is called, so values that
+ * are skipped with {@link #skipValue()} never allocate. Numbers are checked against the number
+ * grammar of RFC 8259 when they are scanned, and parsed straight from an internal character buffer.
+ * <p>
+ * Note: The tokenizer is not thread-safe.
+ */
+public class JsonTokenizer {
+
+    public enum Token {
+        START_OBJECT,
+        END_OBJECT,
+        START_ARRAY,
+        END_ARRAY,
+        FIELD_NAME,
+        STRING,
+        NUMBER,
+        TRUE,
+        FALSE,
+        NULL,
+        END_DOCUMENT
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_DEPTH = 512;
+
+    // Powers of ten that are exactly representable as a double
+    private static final double[] EXACT_POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final Reader reader;
+    private final ByteBuffer bytes;
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    // Containers the tokenizer is currently in, true for objects
+    private final boolean[] containerStack = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean expectingFieldName;
+    private boolean expectingValue = true;
+
+    private Token currentToken;
+    private boolean pendingString;
+    private final StringBuilder text = new StringBuilder();
+    private char[] number = new char[32];
+    private int numberLength;
+
+    public JsonTokenizer(Reader reader) {
+        this.reader = reader;
+        this.bytes = null;
+    }
+
+    public JsonTokenizer(ByteBuffer bytes) {
+        this.reader = null;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Returns the token the tokenizer is currently positioned on
+     */
+    public Token currentToken() {
+        return currentToken;
+    }
+
+    /**
+     * Advances to the next token of the document
+     */
+    public Token next() throws IOException {
+        if (pendingString) {
+            skipString();
+        }
+
+        int c = nextNonWhitespace();
+        if (!expectingValue && !expectingFieldName) {
+            // A value was completed, it is either followed by a separator or by the end of its container
+            if (c == ',') {
+                if (depth == 0) {
+                    throw syntaxError("Unexpected ','");
+                }
+                c = nextNonWhitespace();
+                if (containerStack[depth - 1]) {
+                    expectingFieldName = true;
+                } else {
+                    expectingValue = true;
+                }
+            } else if (c != '}' && c != ']' && c != -1) {
+                throw syntaxError("Expected ',' but found '" + (char) c + "'");
+            }
+        }
+
+        if (expectingFieldName) {
+            if (c == '}' && currentToken == Token.START_OBJECT) {
+                return endContainer(true);
+            }
+            if (c != '"') {
+                throw syntaxError("Expected a field name");
+            }
+            readString(true);
+            if (nextNonWhitespace() != ':') {
+                throw syntaxError("Expected ':' after field name");
+            }
+            expectingFieldName = false;
+            expectingValue = true;
+            return currentToken = Token.FIELD_NAME;
+        }
+
+        switch (c) {
+            case -1 -> {
+                if (depth != 0) {
+                    throw syntaxError("Unexpected end of document");
+                }
+                return currentToken = Token.END_DOCUMENT;
+            }
+            case '{' -> {
+                beginContainer(true);
+                return currentToken = Token.START_OBJECT;
+            }
+            case '[' -> {
+                beginContainer(false);
+                return currentToken = Token.START_ARRAY;
+            }
+            case '}' -> {
+                return endContainer(true);
+            }
+            case ']' -> {
+                return endContainer(false);
+            }
+            case '"' -> {
+                pendingString = true;
+                return completeValue(Token.STRING);
+            }
+            case 't' -> {
+                expectLiteral("rue");
+                return completeValue(Token.TRUE);
+            }
+            case 'f' -> {
+                expectLiteral("alse");
+                return completeValue(Token.FALSE);
+            }
+            case 'n' -> {
+                expectLiteral("ull");
+                return completeValue(Token.NULL);
+            }
+            default -> {
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    readNumber((char) c);
+                    return completeValue(Token.NUMBER);
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+            }
+        }
+    }
+
+    /**
+     * Returns the text of the current field name, string or number token
+     */
+    public String text() throws IOException {
+        if (pendingString) {
+            readString(false);
+        }
+        return switch (currentToken) {
+            case FIELD_NAME, STRING -> text.toString();
+            case NUMBER -> new String(number, 0, numberLength);
+            default -> throw new IllegalStateException("Token " + currentToken + " has no text");
+        };
+    }
+
+    /**
+     * Skips the value the tokenizer is positioned on. If it is a field name, its value is skipped.
+     * Nested objects and arrays are skipped entirely without materializing any of their content.
+     */
+    public void skipValue() throws IOException {
+        if (currentToken == Token.FIELD_NAME) {
+            next();
+        }
+
+        if (currentToken == Token.START_OBJECT || currentToken == Token.START_ARRAY) {
+            int targetDepth = depth - 1;
+            while (depth > targetDepth) {
+                next();
+            }
+        } else if (pendingString) {
+            skipString();
+        }
+    }
+
+    public int intValue() {
+        long value = longValue();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Value is out of int range: " + new String(number, 0, numberLength));
+        }
+        return (int) value;
+    }
+
+    public long longValue() {
+        checkToken(Token.NUMBER);
+
+        boolean negative = number[0] == '-';
+        if (numberLength == (negative ? 1 : 0)) {
+            throw new NumberFormatException("Not an integer: " + new String(number, 0, numberLength));
+        }
+
+        long value = 0;
+        for (int i = negative ? 1 : 0; i < numberLength; i++) {
+            char c = number[i];
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Not an integer: " + new String(number, 0, numberLength));
+            }
+            // Accumulate negatively, so that Long.MIN_VALUE can be parsed as well
+            long next = value * 10 - (c - '0');
+            if (value < Long.MIN_VALUE / 10 || next > value) {
+                throw new NumberFormatException("Value is out of long range: " + new String(number, 0, numberLength));
+            }
+            value = next;
+        }
+
+        if (!negative) {
+            if (value == Long.MIN_VALUE) {
+                throw new NumberFormatException("Value is out of long range: " + new String(number, 0, numberLength));
+            }
+            value = -value;
+        }
+        return value;
+    }
+
+    public double doubleValue() {
+        checkToken(Token.NUMBER);
+
+        // Fast path: a mantissa of at most 15 digits scaled by an exact power of ten is correctly rounded
+        boolean negative = number[0] == '-';
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean inFraction = false;
+        int i = negative ? 1 : 0;
+        for (; i < numberLength; i++) {
+            char c = number[i];
+            if (c == '.' && !inFraction) {
+                inFraction = true;
+            } else if (c >= '0' && c <= '9') {
+                if (mantissa != 0 || c != '0') {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (inFraction) {
+                    fractionDigits++;
+                }
+            } else {
+                break;
+            }
+        }
+
+        if (i == numberLength && digits <= 15 && fractionDigits < EXACT_POWERS_OF_TEN.length) {
+            double value = mantissa / EXACT_POWERS_OF_TEN[fractionDigits];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(new String(number, 0, numberLength));
+    }
+
+    /***** Helper Methods *****/
+
+    private Token completeValue(Token token) {
+        expectingValue = false;
+        return currentToken = token;
+    }
+
+    private void beginContainer(boolean isObject) {
+        if (depth == MAX_DEPTH) {
+            throw syntaxError("Document is nested too deeply");
+        }
+        containerStack[depth++] = isObject;
+        expectingFieldName = isObject;
+        expectingValue = !isObject;
+    }
+
+    private Token endContainer(boolean isObject) {
+        if (depth == 0 || containerStack[depth - 1] != isObject) {
+            throw syntaxError("Unexpected '" + (isObject ? '}' : ']') + "'");
+        }
+        if (expectingValue && currentToken != Token.START_ARRAY) {
+            throw syntaxError("Expected a value");
+        }
+        depth--;
+        expectingFieldName = false;
+        expectingValue = false;
+        return currentToken = isObject ? Token.END_OBJECT : Token.END_ARRAY;
+    }
+
+    private void expectLiteral(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (read() != rest.charAt(i)) {
+                throw syntaxError("Invalid literal");
+            }
+        }
+    }
+
+    private void readNumber(char first) throws IOException {
+        numberLength = 0;
+        appendNumberChar(first);
+        while (true) {
+            if (position == limit && !fill()) {
+                break;
+            }
+            char c = buffer[position];
+            if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                appendNumberChar(c);
+                position++;
+            } else {
+                break;
+            }
+        }
+        checkNumberGrammar();
+    }
+
+    /**
+     * Checks the scanned characters against the number grammar of RFC 8259:
+     * {@code [ "-" ] ( "0" / 1-9 *DIGIT ) [ "." 1*DIGIT ] [ ( "e" / "E" ) [ "-" / "+" ] 1*DIGIT ]}
+     */
+    private void checkNumberGrammar() {
+        int i = number[0] == '-' ? 1 : 0;
+        if (i == numberLength || !isDigit(number[i])) {
+            throw syntaxError("Invalid number: expected a digit");
+        }
+        if (number[i++] == '0' && i < numberLength && isDigit(number[i])) {
+            throw syntaxError("Invalid number: leading zero");
+        }
+        i = skipDigits(i);
+        if (i < numberLength && number[i] == '.') {
+            int fractionStart = ++i;
+            i = skipDigits(i);
+            if (i == fractionStart) {
+                throw syntaxError("Invalid number: expected a digit after '.'");
+            }
+        }
+        if (i < numberLength && (number[i] == 'e' || number[i] == 'E')) {
+            i++;
+            if (i < numberLength && (number[i] == '+' || number[i] == '-')) {
+                i++;
+            }
+            int exponentStart = i;
+            i = skipDigits(i);
+            if (i == exponentStart) {
+                throw syntaxError("Invalid number: expected a digit in the exponent");
+            }
+        }
+        if (i != numberLength) {
+            throw syntaxError("Invalid number: unexpected '" + number[i] + "'");
+        }
+    }
+
+    private int skipDigits(int i) {
+        while (i < numberLength && isDigit(number[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private void appendNumberChar(char c) {
+        if (numberLength == number.length) {
+            number = Arrays.copyOf(number, number.length * 2);
+        }
+        number[numberLength++] = c;
+    }
+
+    /**
+     * Reads the content of a string whose opening quote was already consumed into the text buffer
+     */
+    private void readString(boolean isFieldName) throws IOException {
+        pendingString = false;
+        text.setLength(0);
+        while (true) {
+            if (position == limit && !fill()) {
+                throw syntaxError("Unterminated string");
+            }
+
+            // Copy runs of plain characters at once
+            int start = position;
+            while (position < limit && buffer[position] != '"' && buffer[position] != '\\') {
+                position++;
+            }
+            text.append(buffer, start, position - start);
+            if (position == limit) {
+                continue;
+            }
+
+            char c = buffer[position++];
+            if (c == '"') {
+                if (isFieldName) {
+                    currentToken = Token.FIELD_NAME;
+                }
+                return;
+            }
+            text.append(readEscape());
+        }
+    }
+
+    private void skipString() throws IOException {
+        pendingString = false;
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw syntaxError("Unterminated string");
+            } else if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                readEscape();
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = read();
+        return switch (c) {
+            case '"' -> '"';
+            case '\\' -> '\\';
+            case '/' -> '/';
+            case 'b' -> '\b';
+            case 'f' -> '\f';
+            case 'n' -> '\n';
+            case 'r' -> '\r';
+            case 't' -> '\t';
+            case 'u' -> {
+                int codeUnit = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    codeUnit = (codeUnit << 4) | digit;
+                }
+                yield (char) codeUnit;
+            }
+            default -> throw syntaxError("Invalid escape character");
+        };
+    }
+
+    private void checkToken(Token expected) {
+        if (currentToken != expected) {
+            throw new IllegalStateException("Expected token " + expected + " but was " + currentToken);
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            int c = read();
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return c;
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    /**
+     * Refills the character buffer from the source, returns false at the end of the input
+     */
+    private boolean fill() throws IOException {
+        position = 0;
+        limit = reader != null ? Math.max(reader.read(buffer, 0, buffer.length), 0) : decodeBytes();
+        return limit > 0;
+    }
+
+    /**
+     * Decodes the next chunk of UTF-8 bytes into the character buffer
+     */
+    private int decodeBytes() {
+        int length = 0;
+        // Leave room for a surrogate pair at the end of the buffer
+        while (bytes.hasRemaining() && length < buffer.length - 1) {
+            int b = bytes.get();
+            if (b >= 0) {
+                buffer[length++] = (char) b;
+            } else if ((b & 0xE0) == 0xC0) {
+                buffer[length++] = (char) (((b & 0x1F) << 6) | continuationByte());
+            } else if ((b & 0xF0) == 0xE0) {
+                int value = ((b & 0x0F) << 12) | (continuationByte() << 6);
+                buffer[length++] = (char) (value | continuationByte());
+            } else if ((b & 0xF8) == 0xF0) {
+                int codePoint = ((b & 0x07) << 18) | (continuationByte() << 12);
+                codePoint |= continuationByte() << 6;
+                codePoint |= continuationByte();
+                buffer[length++] = Character.highSurrogate(codePoint);
+                buffer[length++] = Character.lowSurrogate(codePoint);
+            } else {
+                throw syntaxError("Invalid UTF-8 byte");
+            }
+        }
+        return length;
+    }
+
+    private int continuationByte() {
+        if (!bytes.hasRemaining()) {
+            throw syntaxError("Truncated UTF-8 sequence");
+        }
+        int b = bytes.get();
+        if ((b & 0xC0) != 0x80) {
+            throw syntaxError("Invalid UTF-8 continuation byte");
+        }
+        return b & 0x3F;
+    }
+
+    private IllegalArgumentException syntaxError(String message) {
+        return new IllegalArgumentException("Malformed JSON: " + message);
+    }
+
+}
@@ -0,0 +1,359 @@
+package ch03;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Generates a dedicated {@link GeneratedJsonWriter} class for a model type on first use.
+ * <p>
+ * The generated class is defined as a hidden nestmate of the model type, so it can read even
+ * private fields with plain {@code getfield} instructions. Its single method writes every field
+ * with a straight-line sequence of instructions and the quoted field names as string constants:
+ * <pre>
+ *      public void writeFields(Object instance, JsonFieldSink sink) {
+ *          Book book = (Book) instance;
+ *          sink.key("\"name\"");
+ *          sink.writeString(book.name);
+ *          sink.key("\"pages\"");
+ *          sink.writeInt(book.pages);
+ *          sink.key("\"genres\"");
+ *          sink.writeReference(book.genres, 2);
+ *      }
+ * </pre>
+ * When a class cannot be defined for a type (e.g. its package is not open to this module),
+ * no writer is generated and the serializer falls back to the reflective path.
+ */
+final class JsonWriterGenerator {
+
+    private static final ClassValue<Optional<GeneratedJsonWriter>> WRITERS = new ClassValue<>() {
+        @Override
+        protected Optional<GeneratedJsonWriter> computeValue(Class<?> type) {
+            return generate(type);
+        }
+    };
+
+    private static final String WRITER_CLASS_SUFFIX = "$$JsonWriter";
+    private static final String SUPER_CLASS = internalName(GeneratedJsonWriter.class);
+    private static final String SINK_CLASS = internalName(JsonFieldSink.class);
+    private static final String WRITE_FIELDS_DESCRIPTOR = "(Ljava/lang/Object;L" + SINK_CLASS + ";)V";
+
+    // Class file version of Java 17
+    private static final int CLASS_FILE_VERSION = 61;
+
+    // Access flags
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    // Opcodes
+    private static final int ALOAD_0 = 0x2A;
+    private static final int ALOAD_1 = 0x2B;
+    private static final int ALOAD_2 = 0x2C;
+    private static final int ALOAD_3 = 0x2D;
+    private static final int ASTORE_3 = 0x4E;
+    private static final int LDC_W = 0x13;
+    private static final int GETFIELD = 0xB4;
+    private static final int INVOKEVIRTUAL = 0xB6;
+    private static final int INVOKESPECIAL = 0xB7;
+    private static final int CHECKCAST = 0xC0;
+    private static final int RETURN = 0xB1;
+
+    private JsonWriterGenerator() {}
+
+    /**
+     * Returns the generated writer of the given type, or an empty optional if no class can be defined for it
+     */
+    static Optional<GeneratedJsonWriter> writerOf(Class<?> type) {
+        return WRITERS.get(type);
+    }
+
+    /***** Helper Methods *****/
+
+    private static Optional<GeneratedJsonWriter> generate(Class<?> type) {
+        if (type.isArray() || type.isPrimitive() || type.isInterface() || type.isHidden()) {
+            return Optional.empty();
+        }
+
+        try {
+            SerializationPlan.FieldPlan[] fields = SerializationPlan.of(type).fields();
+            MethodHandles.Lookup modelLookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+            byte[] classBytes = createClassBytes(type, fields);
+
+            MethodHandles.Lookup writerLookup = modelLookup.defineHiddenClass(classBytes, true, MethodHandles.Lookup.ClassOption.NESTMATE);
+            GeneratedJsonWriter writer = writerLookup.lookupClass()
+                    .asSubclass(GeneratedJsonWriter.class)
+                    .getConstructor()
+                    .newInstance();
+            return Optional.of(writer);
+        } catch (ReflectiveOperationException | IllegalArgumentException ex) {
+            // Class definition is not allowed or not possible for this type, use the reflective path.
+            // Errors like a VerifyError point to a bug in the generated bytecode and are not swallowed.
+            return Optional.empty();
+        }
+    }
+
+    private static byte[] createClassBytes(Class<?> type, SerializationPlan.FieldPlan[] fields) {
+        String modelClass = internalName(type);
+        ConstantPool constantPool = new ConstantPool();
+
+        int thisClassIndex = constantPool.classEntry(modelClass + WRITER_CLASS_SUFFIX);
+        int superClassIndex = constantPool.classEntry(SUPER_CLASS);
+        int codeIndex = constantPool.utf8("Code");
+        int constructorNameIndex = constantPool.utf8("<init>");
+        int constructorDescriptorIndex = constantPool.utf8("()V");
+        int writeFieldsNameIndex = constantPool.utf8("writeFields");
+        int writeFieldsDescriptorIndex = constantPool.utf8(WRITE_FIELDS_DESCRIPTOR);
+
+        byte[] constructorCode = createConstructorCode(constantPool);
+        byte[] writeFieldsCode = createWriteFieldsCode(constantPool, modelClass, fields);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream classFile = new DataOutputStream(bytes)) {
+            classFile.writeInt(0xCAFEBABE);
+            classFile.writeShort(0);
+            classFile.writeShort(CLASS_FILE_VERSION);
+            constantPool.writeTo(classFile);
+
+            classFile.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            classFile.writeShort(thisClassIndex);
+            classFile.writeShort(superClassIndex);
+            classFile.writeShort(0); // interfaces
+            classFile.writeShort(0); // fields
+
+            classFile.writeShort(2); // methods
+            writeMethod(classFile, constructorNameIndex, constructorDescriptorIndex, codeIndex, 1, 1, constructorCode);
+            writeMethod(classFile, writeFieldsNameIndex, writeFieldsDescriptorIndex, codeIndex, 4, 4, writeFieldsCode);
+
+            classFile.writeShort(0); // attributes
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] createConstructorCode(ConstantPool constantPool) {
+        CodeBuilder code = new CodeBuilder();
+        code.op(ALOAD_0);
+        code.op(INVOKESPECIAL, constantPool.methodEntry(SUPER_CLASS, "<init>", "()V"));
+        code.op(RETURN);
+        return code.toByteArray();
+    }
+
+    private static byte[] createWriteFieldsCode(ConstantPool constantPool, String modelClass, SerializationPlan.FieldPlan[] fields) {
+        CodeBuilder code = new CodeBuilder();
+
+        // ModelType model = (ModelType) instance;
+        code.op(ALOAD_1);
+        code.op(CHECKCAST, constantPool.classEntry(modelClass));
+        code.op(ASTORE_3);
+
+        for (int i = 0; i < fields.length; i++) {
+            SerializationPlan.FieldPlan field = fields[i];
+            String fieldDescriptor = descriptorOf(field.type());
+
+            // sink.key("\"fieldName\"");
+            code.op(ALOAD_2);
+            code.op(LDC_W, constantPool.stringEntry(field.quotedName()));
+            code.op(INVOKEVIRTUAL, constantPool.methodEntry(SINK_CLASS, "key", "(Ljava/lang/String;)V"));
+
+            // sink.writeX(model.fieldName);
+            code.op(ALOAD_2);
+            code.op(ALOAD_3);
+            code.op(GETFIELD, constantPool.fieldEntry(modelClass, field.name(), fieldDescriptor));
+
+            String writeMethod = switch (field.category()) {
+                case BOOLEAN -> "writeBoolean";
+                case BYTE -> "writeByte";
+                case CHAR -> "writeChar";
+                case SHORT -> "writeShort";
+                case INT -> "writeInt";
+                case LONG -> "writeLong";
+                case FLOAT -> "writeFloat";
+                case DOUBLE -> "writeDouble";
+                case STRING -> "writeString";
+                default -> "writeReference";
+            };
+
+            if (writeMethod.equals("writeReference")) {
+                // Reference values are dispatched by the serializer with the plan of their field
+                code.op(LDC_W, constantPool.integerEntry(i));
+                code.op(INVOKEVIRTUAL, constantPool.methodEntry(SINK_CLASS, writeMethod, "(Ljava/lang/Object;I)V"));
+            } else {
+                code.op(INVOKEVIRTUAL, constantPool.methodEntry(SINK_CLASS, writeMethod, "(" + fieldDescriptor + ")V"));
+            }
+        }
+
+        code.op(RETURN);
+        return code.toByteArray();
+    }
+
+    private static void writeMethod(DataOutputStream classFile, int nameIndex, int descriptorIndex, int codeIndex,
+                                    int maxStack, int maxLocals, byte[] code) throws IOException {
+        classFile.writeShort(ACC_PUBLIC);
+        classFile.writeShort(nameIndex);
+        classFile.writeShort(descriptorIndex);
+        classFile.writeShort(1); // attributes
+
+        // Code attribute without exception table and without nested attributes. The code has no
+        // branches, so no StackMapTable attribute is required.
+        classFile.writeShort(codeIndex);
+        classFile.writeInt(2 + 2 + 4 + code.length + 2 + 2);
+        classFile.writeShort(maxStack);
+        classFile.writeShort(maxLocals);
+        classFile.writeInt(code.length);
+        classFile.write(code);
+        classFile.writeShort(0); // exception table
+        classFile.writeShort(0); // attributes
+    }
+
+    private static String internalName(Class<?> type) {
+        return type.getName().replace('.', '/');
+    }
+
+    private static String descriptorOf(Class<?> type) {
+        if (type.isPrimitive()) {
+            return switch (type.getName()) {
+                case "boolean" -> "Z";
+                case "byte" -> "B";
+                case "char" -> "C";
+                case "short" -> "S";
+                case "int" -> "I";
+                case "long" -> "J";
+                case "float" -> "F";
+                case "double" -> "D";
+                default -> throw new IllegalArgumentException("Type is not supported: " + type.getTypeName());
+            };
+        }
+        return type.isArray() ? internalName(type) : "L" + internalName(type) + ";";
+    }
+
+    /**
+     * Constant pool of the generated class, deduplicating equal entries
+     */
+    private static final class ConstantPool {
+
+        private static final int CONSTANT_UTF8 = 1;
+        private static final int CONSTANT_INTEGER = 3;
+        private static final int CONSTANT_CLASS = 7;
+        private static final int CONSTANT_STRING = 8;
+        private static final int CONSTANT_FIELDREF = 9;
+        private static final int CONSTANT_METHODREF = 10;
+        private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream entries = new DataOutputStream(bytes);
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private int nextIndex = 1;
+
+        int utf8(String value) {
+            return entry("utf8:" + value, () -> {
+                entries.writeByte(CONSTANT_UTF8);
+                entries.writeUTF(value);
+            });
+        }
+
+        int integerEntry(int value) {
+            return entry("int:" + value, () -> {
+                entries.writeByte(CONSTANT_INTEGER);
+                entries.writeInt(value);
+            });
+        }
+
+        int classEntry(String internalName) {
+            int nameIndex = utf8(internalName);
+            return entry("class:" + internalName, () -> {
+                entries.writeByte(CONSTANT_CLASS);
+                entries.writeShort(nameIndex);
+            });
+        }
+
+        int stringEntry(String value) {
+            int valueIndex = utf8(value);
+            return entry("string:" + value, () -> {
+                entries.writeByte(CONSTANT_STRING);
+                entries.writeShort(valueIndex);
+            });
+        }
+
+        int fieldEntry(String owner, String name, String descriptor) {
+            return memberEntry(CONSTANT_FIELDREF, owner, name, descriptor);
+        }
+
+        int methodEntry(String owner, String name, String descriptor) {
+            return memberEntry(CONSTANT_METHODREF, owner, name, descriptor);
+        }
+
+        void writeTo(DataOutputStream classFile) throws IOException {
+            entries.flush();
+            classFile.writeShort(nextIndex);
+            bytes.writeTo(classFile);
+        }
+
+        private int memberEntry(int tag, String owner, String name, String descriptor) {
+            int classIndex = classEntry(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndTypeIndex = entry("nat:" + name + ":" + descriptor, () -> {
+                entries.writeByte(CONSTANT_NAME_AND_TYPE);
+                entries.writeShort(nameIndex);
+                entries.writeShort(descriptorIndex);
+            });
+            return entry("member:" + tag + ":" + owner + "." + name + ":" + descriptor, () -> {
+                entries.writeByte(tag);
+                entries.writeShort(classIndex);
+                entries.writeShort(nameAndTypeIndex);
+            });
+        }
+
+        private int entry(String key, EntryWriter entryWriter) {
+            Integer existingIndex = indexes.get(key);
+            if (existingIndex != null) {
+                return existingIndex;
+            }
+
+            try {
+                entryWriter.write();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            int index = nextIndex++;
+            indexes.put(key, index);
+            return index;
+        }
+
+        private interface EntryWriter {
+            void write() throws IOException;
+        }
+
+    }
+
+    /**
+     * Bytecode of a single method
+     */
+    private static final class CodeBuilder {
+
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+        void op(int opcode) {
+            code.write(opcode);
+        }
+
+        void op(int opcode, int constantPoolIndex) {
+            code.write(opcode);
+            code.write(constantPoolIndex >> 8);
+            code.write(constantPoolIndex);
+        }
+
+        byte[] toByteArray() {
+            return code.toByteArray();
+        }
+
+    }
+
+}
@@ -0,0 +1,154 @@
+package ch03;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Writes numbers as decimal digits directly into an {@link Appendable}.
+ * <p>
+ * Unlike {@code String.valueOf} or {@code String.format}, no intermediate String, boxed value
+ * or {@code Formatter} is created for a number, which matters when serializing large numeric arrays.
+ */
+final class NumberWriter {
+
+    /**
+     * Precision value that selects the shortest representation which still round-trips
+     */
+    static final int SHORTEST_PRECISION = -1;
+
+    static final int MAX_PRECISION = 15;
+
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    // Below this limit, a scaled double is precise enough to tell a tie from a non-tie
+    private static final double FAST_PATH_LIMIT = 0x1p30;
+
+    // Scaled values whose fraction is this close to one half may be rounded in the wrong direction
+    private static final double TIE_TOLERANCE = 1e-6;
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private NumberWriter() {}
+
+    static void writeInt(int value, Appendable out) throws IOException {
+        if (out instanceof StringBuilder stringBuilder) {
+            stringBuilder.append(value);
+        } else {
+            writeLong(value, out);
+        }
+    }
+
+    static void writeLong(long value, Appendable out) throws IOException {
+        if (out instanceof StringBuilder stringBuilder) {
+            stringBuilder.append(value);
+            return;
+        }
+
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                out.append("-9223372036854775808");
+                return;
+            }
+            out.append('-');
+            value = -value;
+        }
+        writeDigits(value, 0, out);
+    }
+
+    static void writeFloat(float value, int precision, Appendable out) throws IOException {
+        if (precision == SHORTEST_PRECISION && Float.isFinite(value)) {
+            if (out instanceof StringBuilder stringBuilder) {
+                stringBuilder.append(value);
+            } else {
+                out.append(Float.toString(value));
+            }
+        } else {
+            writeDouble(value, precision, out);
+        }
+    }
+
+    /**
+     * Writes the given value with exactly {@code precision} fractional digits, rounding half up.
+     * A precision of {@link #SHORTEST_PRECISION} writes the shortest representation instead.
+     * Non-finite values have no JSON representation and are written as {@code null}.
+     */
+    static void writeDouble(double value, int precision, Appendable out) throws IOException {
+        if (!Double.isFinite(value)) {
+            out.append("null");
+            return;
+        }
+
+        if (precision == SHORTEST_PRECISION) {
+            if (out instanceof StringBuilder stringBuilder) {
+                stringBuilder.append(value);
+            } else {
+                out.append(Double.toString(value));
+            }
+            return;
+        }
+
+        // Like String.format("%.nf"), negative values keep their sign even if they round to zero, as does -0.0
+        if (Double.doubleToRawLongBits(value) < 0) {
+            out.append('-');
+        }
+
+        long scale = POWERS_OF_TEN[precision];
+        double scaledValue = Math.abs(value) * scale;
+        double fraction = scaledValue - Math.floor(scaledValue);
+        if (scaledValue >= FAST_PATH_LIMIT || Math.abs(fraction - 0.5) < TIE_TOLERANCE) {
+            // Values too large to be scaled without losing digits and values that are nearly halfway
+            // between two results are rare enough to take the slow, exact path. Rounding the shortest
+            // decimal representation matches the output of String.format("%.nf").
+            out.append(BigDecimal.valueOf(Math.abs(value)).setScale(precision, RoundingMode.HALF_UP).toPlainString());
+            return;
+        }
+
+        long scaled = Math.round(scaledValue);
+
+        writeDigits(scaled / scale, 0, out);
+        if (precision > 0) {
+            out.append('.');
+            writeDigits(scaled % scale, precision, out);
+        }
+    }
+
+    static void checkPrecision(int precision) {
+        if (precision != SHORTEST_PRECISION && (precision < 0 || precision > MAX_PRECISION)) {
+            throw new IllegalArgumentException(String.format(
+                    "Decimal precision must be between 0 and %d, or %d for the shortest representation",
+                    MAX_PRECISION,
+                    SHORTEST_PRECISION
+            ));
+        }
+    }
+
+    /***** Helper Methods *****/
+
+    /**
+     * Writes the digits of a non-negative value, left padded with zeros to at least {@code minDigits}
+     */
+    private static void writeDigits(long value, int minDigits, Appendable out) throws IOException {
+        int digitCount = 1;
+        while (digitCount < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digitCount]) {
+            digitCount++;
+        }
+
+        for (int i = digitCount; i < minDigits; i++) {
+            out.append('0');
+        }
+
+        for (int i = digitCount - 1; i >= 0; i--) {
+            long powerOfTen = POWERS_OF_TEN[i];
+            long digit = value / powerOfTen;
+            out.append((char) ('0' + digit));
+            value -= digit * powerOfTen;
+        }
+    }
+
+}
@@ -0,0 +1,361 @@
+package ch03;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Period;
+import java.time.ZoneId;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+
+/**
+ * Precompiled serialization plan of a class.
+ * <p>
+ * A plan holds everything the serializer needs to know about a type: the ordered list of
+ * serializable fields, the type category of every field and a {@link MethodHandle} getter to read it.
+ * For array types, the plan holds the category of the component type instead.
+ * <p>
+ * Plans are computed once per class and cached in a {@link ClassValue}, so serializing an
+ * instance of a class that was already seen does no reflective lookups at all.
+ * <p>
+ * Boxed primitives, enums, collections, maps, optionals and {@code java.time} types have
+ * categories of their own and are written by dedicated writers, so the fields of JDK classes
+ * are never walked reflectively.
+ */
+final class SerializationPlan {
+
+    private static final ClassValue<SerializationPlan> PLANS = new ClassValue<>() {
+        @Override
+        protected SerializationPlan computeValue(Class<?> type) {
+            return new SerializationPlan(type);
+        }
+    };
+
+    private static final ClassValue<Category> CATEGORIES = new ClassValue<>() {
+        @Override
+        protected Category computeValue(Class<?> type) {
+            return computeCategory(type);
+        }
+    };
+
+    private static final ClassValue<Category> UNBOXED_CATEGORIES = new ClassValue<>() {
+        @Override
+        protected Category computeValue(Class<?> type) {
+            return isBoxed(type) ? primitiveCategoryOf(MethodType.methodType(type).unwrap().returnType()) : null;
+        }
+    };
+
+    private static final FieldPlan[] NO_FIELDS = new FieldPlan[0];
+
+    /**
+     * Type categories the serializer dispatches on
+     */
+    enum Category {
+        STRING,
+        BOOLEAN,
+        BYTE,
+        CHAR,
+        SHORT,
+        INT,
+        LONG,
+        FLOAT,
+        DOUBLE,
+        ARRAY,
+        // Boolean, Character and the boxed numbers
+        BOXED,
+        // Any other number, e.g. BigDecimal or BigInteger
+        NUMBER,
+        ENUM,
+        COLLECTION,
+        MAP,
+        // Optional, OptionalInt, OptionalLong and OptionalDouble
+        OPTIONAL,
+        // Dates, times, durations, periods and zones, written in their ISO-8601 form
+        TEMPORAL,
+        OBJECT
+    }
+
+    private final Class<?> type;
+    private final FieldPlan[] fields;
+    private final Class<?> componentType;
+    private final Category componentCategory;
+
+    private SerializationPlan(Class<?> type) {
+        this.type = type;
+        if (type.isArray()) {
+            this.fields = NO_FIELDS;
+            this.componentType = type.getComponentType();
+            this.componentCategory = categoryOf(componentType);
+        } else {
+            this.fields = createFieldPlans(type);
+            this.componentType = null;
+            this.componentCategory = null;
+        }
+    }
+
+    /**
+     * Returns the cached plan of the given class, computing it on first use
+     */
+    static SerializationPlan of(Class<?> type) {
+        return PLANS.get(type);
+    }
+
+    /**
+     * Returns the cached category of the given class, computing it on first use
+     */
+    static Category categoryOf(Class<?> type) {
+        return CATEGORIES.get(type);
+    }
+
+    /**
+     * Returns the cached category of the primitive type of the given boxed class, or null if the class is not a boxed type
+     */
+    static Category unboxedCategoryOf(Class<?> type) {
+        return UNBOXED_CATEGORIES.get(type);
+    }
+
+    Class<?> type() {
+        return type;
+    }
+
+    FieldPlan[] fields() {
+        return fields;
+    }
+
+    Class<?> componentType() {
+        return componentType;
+    }
+
+    Category componentCategory() {
+        return componentCategory;
+    }
+
+    /***** Helper Methods *****/
+
+    private static Category computeCategory(Class<?> type) {
+        if (type == String.class) {
+            return Category.STRING;
+        } else if (type.isPrimitive()) {
+            return primitiveCategoryOf(type);
+        } else if (type.isArray()) {
+            return Category.ARRAY;
+        } else if (isBoxed(type)) {
+            return Category.BOXED;
+        } else if (Number.class.isAssignableFrom(type)) {
+            return Category.NUMBER;
+        } else if (Enum.class.isAssignableFrom(type)) {
+            return Category.ENUM;
+        } else if (Collection.class.isAssignableFrom(type)) {
+            return Category.COLLECTION;
+        } else if (Map.class.isAssignableFrom(type)) {
+            return Category.MAP;
+        } else if (type == Optional.class || type == OptionalInt.class || type == OptionalLong.class || type == OptionalDouble.class) {
+            return Category.OPTIONAL;
+        } else if (TemporalAccessor.class.isAssignableFrom(type) || type == Duration.class
+                || type == Period.class || ZoneId.class.isAssignableFrom(type)) {
+            return Category.TEMPORAL;
+        } else {
+            return Category.OBJECT;
+        }
+    }
+
+    private static boolean isBoxed(Class<?> type) {
+        return type == Boolean.class || type == Character.class || type == Byte.class || type == Short.class
+                || type == Integer.class || type == Long.class || type == Float.class || type == Double.class;
+    }
+
+    private static Category primitiveCategoryOf(Class<?> type) {
+        if (type == boolean.class) {
+            return Category.BOOLEAN;
+        } else if (type == byte.class) {
+            return Category.BYTE;
+        } else if (type == char.class) {
+            return Category.CHAR;
+        } else if (type == short.class) {
+            return Category.SHORT;
+        } else if (type == int.class) {
+            return Category.INT;
+        } else if (type == long.class) {
+            return Category.LONG;
+        } else if (type == float.class) {
+            return Category.FLOAT;
+        } else if (type == double.class) {
+            return Category.DOUBLE;
+        }
+
+        throw new IllegalArgumentException("Type is not supported: " + type.getTypeName());
+    }
+
+    private static FieldPlan[] createFieldPlans(Class<?> type) {
+        MethodHandles.Lookup lookup;
+        try {
+            lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+        } catch (IllegalAccessException ex) {
+            throw new IllegalArgumentException("Fields of type " + type.getTypeName() + " are not accessible", ex);
+        }
+
+        List<FieldPlan> fieldPlans = new ArrayList<>();
+        for (Field field : type.getDeclaredFields()) {
+            int modifiers = field.getModifiers();
+            if (field.isSynthetic() || Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                continue;
+            }
+
+            try {
+                // Adapted once to the exact type the typed getters invoke it with, so no call adapts it again
+                Class<?> valueType = field.getType().isPrimitive() ? field.getType() : Object.class;
+                MethodHandle getter = lookup.unreflectGetter(field).asType(MethodType.methodType(valueType, Object.class));
+                fieldPlans.add(new FieldPlan(field, getter));
+            } catch (IllegalAccessException ex) {
+                throw new IllegalArgumentException("Field " + field.getName() + " is not accessible", ex);
+            }
+        }
+        return fieldPlans.toArray(NO_FIELDS);
+    }
+
+    /**
+     * Serialization details of a single field
+     */
+    static final class FieldPlan {
+
+        private final Field field;
+        private final String name;
+        private final String quotedName;
+        private final byte[] utf8Name;
+        private final Class<?> type;
+        private final Category category;
+        // (Object)T, where T is the field type if it is primitive and Object otherwise
+        private final MethodHandle getter;
+
+        private FieldPlan(Field field, MethodHandle getter) {
+            this.field = field;
+            this.name = field.getName();
+            this.quotedName = "\"" + name + "\"";
+            this.utf8Name = name.getBytes(StandardCharsets.UTF_8);
+            this.type = field.getType();
+            this.category = categoryOf(type);
+            this.getter = getter;
+        }
+
+        Field field() {
+            return field;
+        }
+
+        String name() {
+            return name;
+        }
+
+        /**
+         * Returns the field name already wrapped in quotes, ready to be written as an object key
+         */
+        String quotedName() {
+            return quotedName;
+        }
+
+        /**
+         * Returns the field name encoded as UTF-8 bytes, ready to be written by binary encoders
+         */
+        byte[] utf8Name() {
+            return utf8Name;
+        }
+
+        Class<?> type() {
+            return type;
+        }
+
+        Category category() {
+            return category;
+        }
+
+        Object get(Object instance) {
+            try {
+                return (Object) getter.invokeExact(instance);
+            } catch (Throwable ex) {
+                throw getterFailure(ex);
+            }
+        }
+
+        // Typed getters of primitive fields, reading the value without boxing it
+
+        boolean getBoolean(Object instance) {
+            try {
+                return (boolean) getter.invokeExact(instance);
+            } catch (Throwable ex) {
+                throw getterFailure(ex);
+            }
+        }
+
+        byte getByte(Object instance) {
+            try {
+                return (byte) getter.invokeExact(instance);
+            } catch (Throwable ex) {
+                throw getterFailure(ex);
+            }
+        }
+
+        char getChar(Object instance) {
+            try {
+                return (char) getter.invokeExact(instance);
+            } catch (Throwable ex) {
+                throw getterFailure(ex);
+            }
+        }
+
+        short getShort(Object instance) {
+            try {
+                return (short) getter.invokeExact(instance);
+            } catch (Throwable ex) {
+                throw getterFailure(ex);
+            }
+        }
+
+        int getInt(Object instance) {
+            try {
+                return (int) getter.invokeExact(instance);
+            } catch (Throwable ex) {
+                throw getterFailure(ex);
+            }
+        }
+
+        long getLong(Object instance) {
+            try {
+                return (long) getter.invokeExact(instance);
+            } catch (Throwable ex) {
+                throw getterFailure(ex);
+            }
+        }
+
+        float getFloat(Object instance) {
+            try {
+                return (float) getter.invokeExact(instance);
+            } catch (Throwable ex) {
+                throw getterFailure(ex);
+            }
+        }
+
+        double getDouble(Object instance) {
+            try {
+                return (double) getter.invokeExact(instance);
+            } catch (Throwable ex) {
+                throw getterFailure(ex);
+            }
+        }
+
+        private IllegalStateException getterFailure(Throwable cause) {
+            return new IllegalStateException("Failed to get field " + name, cause);
+        }
+
+    }
+
+}
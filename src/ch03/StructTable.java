@@ -0,0 +1,444 @@
+package ch03;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Off-heap table that stores instances of a class as fixed-size rows of their primitive fields.
+ * <p>
+ * The row layout is derived reflectively from the fields of the class, including inherited ones,
+ * like {@link DiscoveringFields} walks them. Fields are ordered by size, largest first, so every
+ * field is naturally aligned without padding between fields, and the row size is rounded up to the
+ * largest field size. A million movies of {@code year}, {@code actualPrice} and {@code isReleased}
+ * thus take 16 MB off the heap, without any object header or reference.
+ * <p>
+ * Instances are copied into and out of rows through method handles that combine the field getter or
+ * setter with the buffer access, so no value is ever boxed. Single values are read and written through
+ * the typed accessors of a {@link Column}, which access the buffer directly at the column offset.
+ * <p>
+ * Rows are stored in direct buffers of up to 1 GiB each, and a row never spans two buffers.
+ */
+public final class StructTable<T> {
+
+    private static final ByteOrder BYTE_ORDER = ByteOrder.nativeOrder();
+    private static final Column[] NO_COLUMNS = new Column[0];
+
+    private final Class<T> type;
+    private final Column[] columns;
+    private final int rowSize;
+    private final int rowsPerChunk;
+    private final ByteBuffer[] chunks;
+    private final long rowCount;
+    private final MethodHandle constructor;
+
+    public static void main(String[] args) {
+        StructTable<DiscoveringFields.Movie> movies =
+                StructTable.allocate(DiscoveringFields.Movie.class, 1_000_000, "year", "actualPrice", "isReleased");
+        System.out.println(movies);
+
+        for (long row = 0; row < movies.rowCount(); row++) {
+            movies.store(row, new DiscoveringFields.Movie("Movie " + row, 1900 + (int) (row % 125), row % 50, row % 3 == 0, null));
+        }
+
+        Column actualPrice = movies.column("actualPrice");
+        double totalPrice = 0;
+        for (long row = 0; row < movies.rowCount(); row++) {
+            totalPrice += actualPrice.getDouble(row);
+        }
+        System.out.printf("Total price: %.2f\n", totalPrice);
+
+        var movie = new DiscoveringFields.Movie("Gladiator", 0, 0, false, DiscoveringFields.Category.ACTION);
+        movies.load(999_999, movie);
+        System.out.printf("[year=%d, actualPrice=%.2f]\n", movie.year, movie.actualPrice);
+    }
+
+    private StructTable(Class<T> type, List<Field> fields, long rowCount) {
+        this.type = type;
+        this.rowCount = rowCount;
+
+        // Largest fields first, so each field offset is a multiple of its size
+        List<Field> orderedFields = new ArrayList<>(fields);
+        orderedFields.sort(Comparator.comparingInt((Field field) -> sizeOf(field.getType())).reversed());
+
+        List<Column> tableColumns = new ArrayList<>();
+        int offset = 0;
+        int alignment = 1;
+        for (Field field : orderedFields) {
+            tableColumns.add(new Column(this, field, offset));
+            offset += sizeOf(field.getType());
+            alignment = Math.max(alignment, sizeOf(field.getType()));
+        }
+        this.columns = tableColumns.toArray(NO_COLUMNS);
+        this.rowSize = Math.max(alignment, (offset + alignment - 1) / alignment * alignment);
+        this.rowsPerChunk = (int) (ArrayView.CHUNK_SIZE / rowSize);
+
+        int chunkCount = (int) ((rowCount + rowsPerChunk - 1) / rowsPerChunk);
+        this.chunks = new ByteBuffer[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            long chunkRows = Math.min(rowsPerChunk, rowCount - (long) i * rowsPerChunk);
+            chunks[i] = ByteBuffer.allocateDirect((int) chunkRows * rowSize).order(BYTE_ORDER);
+        }
+
+        MethodHandle noArgConstructor;
+        try {
+            noArgConstructor = MethodHandles.privateLookupIn(type, MethodHandles.lookup())
+                    .findConstructor(type, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            // Rows can still be loaded into existing instances
+            noArgConstructor = null;
+        }
+        this.constructor = noArgConstructor;
+    }
+
+    /**
+     * Allocates a zeroed table for the given number of rows, with a column for every primitive instance field of the class
+     *
+     * @throws IllegalArgumentException if the class has a non-primitive instance field
+     */
+    public static <T> StructTable<T> allocate(Class<T> type, long rowCount) {
+        List<Field> fields = instanceFieldsOf(type);
+        for (Field field : fields) {
+            if (!field.getType().isPrimitive()) {
+                throw new IllegalArgumentException(String.format("Field %s of type %s is not primitive, select the stored fields by name",
+                        field.getName(), field.getType().getTypeName()));
+            }
+        }
+        return new StructTable<>(type, fields, rowCount);
+    }
+
+    /**
+     * Allocates a zeroed table for the given number of rows, with a column for each of the named fields.
+     * All other fields of the class are not stored.
+     */
+    public static <T> StructTable<T> allocate(Class<T> type, long rowCount, String... fieldNames) {
+        List<Field> fields = new ArrayList<>();
+        List<Field> instanceFields = instanceFieldsOf(type);
+        for (String fieldName : fieldNames) {
+            Field field = instanceFields.stream()
+                    .filter(instanceField -> instanceField.getName().equals(fieldName))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("Class " + type.getTypeName() + " has no field " + fieldName));
+            if (!field.getType().isPrimitive()) {
+                throw new IllegalArgumentException("Field " + fieldName + " is not primitive");
+            }
+            fields.add(field);
+        }
+        return new StructTable<>(type, fields, rowCount);
+    }
+
+    public long rowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the size of a row in bytes
+     */
+    public int rowSize() {
+        return rowSize;
+    }
+
+    /**
+     * Returns the columns in layout order
+     */
+    public List<Column> columns() {
+        return List.of(columns);
+    }
+
+    public Column column(String fieldName) {
+        for (Column column : columns) {
+            if (column.name.equals(fieldName)) {
+                return column;
+            }
+        }
+        throw new IllegalArgumentException("Table has no column " + fieldName);
+    }
+
+    /**
+     * Copies the stored fields of the given instance into a row
+     */
+    public void store(long row, T instance) {
+        ByteBuffer chunk = chunkOf(row);
+        int rowPosition = positionOf(row);
+        for (Column column : columns) {
+            try {
+                column.store.invokeExact(chunk, rowPosition + column.offset, (Object) instance);
+            } catch (Throwable ex) {
+                throw new IllegalStateException("Failed to store field " + column.name, ex);
+            }
+        }
+    }
+
+    /**
+     * Copies a row into the stored fields of the given instance, leaving all other fields unchanged
+     */
+    public void load(long row, T instance) {
+        ByteBuffer chunk = chunkOf(row);
+        int rowPosition = positionOf(row);
+        for (Column column : columns) {
+            try {
+                column.load.invokeExact((Object) instance, chunk, rowPosition + column.offset);
+            } catch (Throwable ex) {
+                throw new IllegalStateException("Failed to load field " + column.name, ex);
+            }
+        }
+    }
+
+    /**
+     * Creates a new instance from a row, through the no-arg constructor of the class
+     */
+    public T get(long row) {
+        if (constructor == null) {
+            throw new IllegalStateException(type.getTypeName() + " has no no-arg constructor, load the row into an existing instance");
+        }
+
+        T instance;
+        try {
+            instance = type.cast(constructor.invokeExact());
+        } catch (Throwable ex) {
+            throw new IllegalStateException("Failed to create an instance of " + type.getTypeName(), ex);
+        }
+        load(row, instance);
+        return instance;
+    }
+
+    @Override
+    public String toString() {
+        return "StructTable{" + type.getSimpleName() + ", rowSize=" + rowSize + ", rowCount=" + rowCount + ", columns=" + Arrays.toString(columns) + '}';
+    }
+
+    /***** Helper Methods *****/
+
+    private ByteBuffer chunkOf(long row) {
+        Objects.checkIndex(row, rowCount);
+        return chunks[(int) (row / rowsPerChunk)];
+    }
+
+    private int positionOf(long row) {
+        return (int) (row % rowsPerChunk) * rowSize;
+    }
+
+    /**
+     * Returns the instance fields of the class and its superclasses, superclass fields first
+     */
+    private static List<Field> instanceFieldsOf(Class<?> type) {
+        List<Field> fields = new ArrayList<>();
+        if (type.getSuperclass() != null && type.getSuperclass() != Object.class) {
+            fields.addAll(instanceFieldsOf(type.getSuperclass()));
+        }
+        for (Field field : type.getDeclaredFields()) {
+            if (!field.isSynthetic() && !Modifier.isStatic(field.getModifiers())) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    private static int sizeOf(Class<?> primitiveType) {
+        if (primitiveType == long.class || primitiveType == double.class) {
+            return 8;
+        } else if (primitiveType == int.class || primitiveType == float.class) {
+            return 4;
+        } else if (primitiveType == short.class || primitiveType == char.class) {
+            return 2;
+        }
+        return 1;
+    }
+
+    /**
+     * Returns a {@code (ByteBuffer, int)} handle that reads the given primitive type
+     */
+    private static MethodHandle readerOf(Class<?> primitiveType) throws ReflectiveOperationException {
+        if (primitiveType == boolean.class || primitiveType == byte.class) {
+            return MethodHandles.lookup().findStatic(StructTable.class, "read" + (primitiveType == boolean.class ? "Boolean" : "Byte"),
+                    MethodType.methodType(primitiveType, ByteBuffer.class, int.class));
+        }
+        return bufferElementOf(primitiveType).toMethodHandle(VarHandle.AccessMode.GET);
+    }
+
+    /**
+     * Returns a {@code (ByteBuffer, int, value)} handle that writes the given primitive type
+     */
+    private static MethodHandle writerOf(Class<?> primitiveType) throws ReflectiveOperationException {
+        if (primitiveType == boolean.class || primitiveType == byte.class) {
+            return MethodHandles.lookup().findStatic(StructTable.class, "write" + (primitiveType == boolean.class ? "Boolean" : "Byte"),
+                    MethodType.methodType(void.class, ByteBuffer.class, int.class, primitiveType));
+        }
+        return bufferElementOf(primitiveType).toMethodHandle(VarHandle.AccessMode.SET);
+    }
+
+    private static VarHandle bufferElementOf(Class<?> primitiveType) {
+        // Byte buffer views exist for every primitive type wider than a byte
+        return MethodHandles.byteBufferViewVarHandle(primitiveType.arrayType(), BYTE_ORDER);
+    }
+
+    private static boolean readBoolean(ByteBuffer buffer, int position) {
+        return buffer.get(position) != 0;
+    }
+
+    private static void writeBoolean(ByteBuffer buffer, int position, boolean value) {
+        buffer.put(position, (byte) (value ? 1 : 0));
+    }
+
+    private static byte readByte(ByteBuffer buffer, int position) {
+        return buffer.get(position);
+    }
+
+    private static void writeByte(ByteBuffer buffer, int position, byte value) {
+        buffer.put(position, value);
+    }
+
+    /**
+     * Column of a single field, at a fixed offset within every row
+     */
+    public static final class Column {
+
+        private final StructTable<?> table;
+        private final String name;
+        private final Class<?> type;
+        private final int offset;
+        // (ByteBuffer, int, Object) -> void, reads the field of the instance and writes it to the buffer
+        private final MethodHandle store;
+        // (Object, ByteBuffer, int) -> void, reads the buffer and writes it to the field of the instance
+        private final MethodHandle load;
+
+        private Column(StructTable<?> table, Field field, int offset) {
+            this.table = table;
+            this.name = field.getName();
+            this.type = field.getType();
+            this.offset = offset;
+
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(field.getDeclaringClass(), MethodHandles.lookup());
+                MethodHandle getter = lookup.unreflectGetter(field)
+                        .asType(MethodType.methodType(type, Object.class));
+                MethodHandle setter = lookup.unreflectSetter(field)
+                        .asType(MethodType.methodType(void.class, Object.class, type));
+
+                this.store = MethodHandles.collectArguments(writerOf(type), 2, getter);
+                this.load = MethodHandles.collectArguments(setter, 1, readerOf(type));
+            } catch (ReflectiveOperationException ex) {
+                throw new IllegalArgumentException("Field " + name + " is not accessible", ex);
+            }
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public Class<?> type() {
+            return type;
+        }
+
+        /**
+         * Returns the offset of the field within a row
+         */
+        public int offset() {
+            return offset;
+        }
+
+        public boolean getBoolean(long row) {
+            checkType(boolean.class);
+            return readBoolean(table.chunkOf(row), table.positionOf(row) + offset);
+        }
+
+        public void setBoolean(long row, boolean value) {
+            checkType(boolean.class);
+            writeBoolean(table.chunkOf(row), table.positionOf(row) + offset, value);
+        }
+
+        public byte getByte(long row) {
+            checkType(byte.class);
+            return table.chunkOf(row).get(table.positionOf(row) + offset);
+        }
+
+        public void setByte(long row, byte value) {
+            checkType(byte.class);
+            table.chunkOf(row).put(table.positionOf(row) + offset, value);
+        }
+
+        public short getShort(long row) {
+            checkType(short.class);
+            return table.chunkOf(row).getShort(table.positionOf(row) + offset);
+        }
+
+        public void setShort(long row, short value) {
+            checkType(short.class);
+            table.chunkOf(row).putShort(table.positionOf(row) + offset, value);
+        }
+
+        public char getChar(long row) {
+            checkType(char.class);
+            return table.chunkOf(row).getChar(table.positionOf(row) + offset);
+        }
+
+        public void setChar(long row, char value) {
+            checkType(char.class);
+            table.chunkOf(row).putChar(table.positionOf(row) + offset, value);
+        }
+
+        public int getInt(long row) {
+            checkType(int.class);
+            return table.chunkOf(row).getInt(table.positionOf(row) + offset);
+        }
+
+        public void setInt(long row, int value) {
+            checkType(int.class);
+            table.chunkOf(row).putInt(table.positionOf(row) + offset, value);
+        }
+
+        public long getLong(long row) {
+            checkType(long.class);
+            return table.chunkOf(row).getLong(table.positionOf(row) + offset);
+        }
+
+        public void setLong(long row, long value) {
+            checkType(long.class);
+            table.chunkOf(row).putLong(table.positionOf(row) + offset, value);
+        }
+
+        public float getFloat(long row) {
+            checkType(float.class);
+            return table.chunkOf(row).getFloat(table.positionOf(row) + offset);
+        }
+
+        public void setFloat(long row, float value) {
+            checkType(float.class);
+            table.chunkOf(row).putFloat(table.positionOf(row) + offset, value);
+        }
+
+        public double getDouble(long row) {
+            checkType(double.class);
+            return table.chunkOf(row).getDouble(table.positionOf(row) + offset);
+        }
+
+        public void setDouble(long row, double value) {
+            checkType(double.class);
+            table.chunkOf(row).putDouble(table.positionOf(row) + offset, value);
+        }
+
+        @Override
+        public String toString() {
+            return type.getName() + " " + name + " @" + offset;
+        }
+
+        private void checkType(Class<?> expectedType) {
+            if (type != expectedType) {
+                throw new IllegalStateException("Column " + name + " is of type " + type.getName() + ", not " + expectedType.getName());
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,147 @@
+package ch03;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Buffered {@link Appendable} that encodes characters straight to UTF-8 bytes.
+ * <p>
+ * Characters are encoded into a fixed size byte buffer, which is written to the underlying
+ * stream whenever it fills up. Unlike an {@code OutputStreamWriter}, no intermediate char
+ * buffer or {@code CharsetEncoder} is involved.
+ * <p>
+ * Note: The writer is not thread-safe.
+ */
+public class Utf8Writer implements Appendable, Flushable, Closeable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int position;
+
+    // High surrogate waiting for its low surrogate pair, or 0 if there is none
+    private char pendingHighSurrogate;
+
+    public Utf8Writer(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    public Utf8Writer(OutputStream out, int bufferSize) {
+        if (bufferSize < 4) {
+            throw new IllegalArgumentException("Buffer size must be at least 4 bytes");
+        }
+        this.out = out;
+        this.buffer = new byte[bufferSize];
+    }
+
+    @Override
+    public Utf8Writer append(CharSequence csq) throws IOException {
+        CharSequence sequence = csq == null ? "null" : csq;
+        return append(sequence, 0, sequence.length());
+    }
+
+    @Override
+    public Utf8Writer append(CharSequence csq, int start, int end) throws IOException {
+        if (csq == null) {
+            return append("null", start, end);
+        }
+
+        int i = start;
+        while (i < end) {
+            // Fast path for runs of ASCII characters
+            if (pendingHighSurrogate == 0) {
+                int limit = Math.min(end, i + buffer.length - position);
+                while (i < limit) {
+                    char c = csq.charAt(i);
+                    if (c >= 0x80) {
+                        break;
+                    }
+                    buffer[position++] = (byte) c;
+                    i++;
+                }
+                if (position == buffer.length) {
+                    flushBuffer();
+                }
+                if (i == end) {
+                    break;
+                }
+            }
+            append(csq.charAt(i++));
+        }
+        return this;
+    }
+
+    @Override
+    public Utf8Writer append(char c) throws IOException {
+        if (buffer.length - position < 4) {
+            flushBuffer();
+        }
+
+        if (pendingHighSurrogate != 0) {
+            char highSurrogate = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                writeCodePoint(Character.toCodePoint(highSurrogate, c));
+                return this;
+            }
+            // Unpaired high surrogate
+            buffer[position++] = '?';
+        }
+
+        if (c < 0x80) {
+            buffer[position++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[position++] = (byte) (0xC0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            // Unpaired low surrogate
+            buffer[position++] = '?';
+        } else {
+            buffer[position++] = (byte) (0xE0 | (c >> 12));
+            buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (pendingHighSurrogate != 0) {
+                pendingHighSurrogate = 0;
+                append('?');
+            }
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+
+    /***** Helper Methods *****/
+
+    private void writeCodePoint(int codePoint) {
+        buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+}
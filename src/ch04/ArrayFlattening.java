@@ -1,8 +1,9 @@
 package ch04;
 
 import java.lang.reflect.Array;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 /**
  * Exercise: Implement a method that performs "smart concatenation" of elements.
@@ -25,9 +26,30 @@ import java.util.List;
  *   - String [] result = contact(String.class, new String[] {"a", "b"}, "c", new String[] {"d", "e"});
  *   - The result will be an array of 5 Strings containing the elements : ["a", "b", "c", "d", "e"]
  * </pre>
+ * The arguments are walked twice: once to compute the total length, and once to copy them into the
+ * result. Nested arrays of the result type are copied with {@link System#arraycopy}, so primitives are
+ * never boxed and no intermediate list is built. Large results can be copied in parallel.
  */
 public class ArrayFlattening {
 
+    private static final int MIN_PARALLEL_CHUNK = 1 << 16;
+
+    private final int parallelThreshold;
+
+    public ArrayFlattening() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param parallelThreshold result length from which nested arrays are copied in parallel
+     */
+    public ArrayFlattening(int parallelThreshold) {
+        if (parallelThreshold <= 0) {
+            throw new IllegalArgumentException("Parallel threshold must be positive");
+        }
+        this.parallelThreshold = parallelThreshold;
+    }
+
     @SuppressWarnings("unchecked")
     public <T> T concat(Class<?> type, Object... arguments) {
 
@@ -35,25 +57,149 @@ public class ArrayFlattening {
             return null;
         }
 
-        List<Object> list = new ArrayList<>();
+        int length = 0;
+        for (Object arg : arguments) {
+            length = Math.addExact(length, isArray(arg) ? Array.getLength(arg) : 1);
+        }
+
+        Object flattenedArray = Array.newInstance(type, length);
+        boolean parallel = length >= parallelThreshold;
+        int position = 0;
         for (Object arg : arguments) {
-            if (!arg.getClass().isArray()) {
-                list.add(arg);
+            if (!isArray(arg)) {
+                setElement(flattenedArray, position++, arg);
                 continue;
             }
             // If argument is an array
-            for (int j = 0, len = Array.getLength(arg); j < len; j++) {
-                Object arrayElement = Array.get(arg, j);
-                list.add(arrayElement);
+            int argLength = Array.getLength(arg);
+            if (!isBulkCopyable(arg, type)) {
+                // E.g. an Integer[] into an int[], which has to be unboxed element by element
+                for (int j = 0; j < argLength; j++) {
+                    Array.set(flattenedArray, position + j, Array.get(arg, j));
+                }
+            } else if (!parallel) {
+                System.arraycopy(arg, 0, flattenedArray, position, argLength);
             }
+            position += argLength;
         }
 
-        Object flattenedArray = Array.newInstance(type, list.size());
-        for (int i = 0; i < list.size(); i++) {
-            Array.set(flattenedArray, i, list.get(i));
+        if (parallel) {
+            copyInParallel(arguments, type, flattenedArray, length);
         }
-
         return (T) flattenedArray;
     }
 
+    public int[] concat(int[]... arrays) {
+        int length = 0;
+        for (int[] array : arrays) {
+            length = Math.addExact(length, array.length);
+        }
+        int[] flattenedArray = new int[length];
+        copyAll(arrays, int.class, flattenedArray, length);
+        return flattenedArray;
+    }
+
+    public long[] concat(long[]... arrays) {
+        int length = 0;
+        for (long[] array : arrays) {
+            length = Math.addExact(length, array.length);
+        }
+        long[] flattenedArray = new long[length];
+        copyAll(arrays, long.class, flattenedArray, length);
+        return flattenedArray;
+    }
+
+    public double[] concat(double[]... arrays) {
+        int length = 0;
+        for (double[] array : arrays) {
+            length = Math.addExact(length, array.length);
+        }
+        double[] flattenedArray = new double[length];
+        copyAll(arrays, double.class, flattenedArray, length);
+        return flattenedArray;
+    }
+
+    /***** Helper Methods *****/
+
+    private static boolean isArray(Object arg) {
+        return arg != null && arg.getClass().isArray();
+    }
+
+    /**
+     * Returns whether the given array can be copied into an array of the given component type with {@link System#arraycopy}
+     */
+    private static boolean isBulkCopyable(Object array, Class<?> type) {
+        Class<?> componentType = array.getClass().getComponentType();
+        return componentType == type
+                || !type.isPrimitive() && !componentType.isPrimitive() && type.isAssignableFrom(componentType);
+    }
+
+    /**
+     * Writes a single element, without the reflective lookup of {@link Array#set} for the common primitive arrays
+     */
+    private static void setElement(Object array, int index, Object value) {
+        if (array instanceof int[] ints && value instanceof Integer intValue) {
+            ints[index] = intValue;
+        } else if (array instanceof long[] longs && value instanceof Long longValue) {
+            longs[index] = longValue;
+        } else if (array instanceof double[] doubles && value instanceof Double doubleValue) {
+            doubles[index] = doubleValue;
+        } else {
+            Array.set(array, index, value);
+        }
+    }
+
+    private void copyAll(Object[] arrays, Class<?> type, Object flattenedArray, int length) {
+        if (length >= parallelThreshold) {
+            copyInParallel(arrays, type, flattenedArray, length);
+            return;
+        }
+
+        int position = 0;
+        for (Object array : arrays) {
+            int arrayLength = Array.getLength(array);
+            System.arraycopy(array, 0, flattenedArray, position, arrayLength);
+            position += arrayLength;
+        }
+    }
+
+    /**
+     * Copies the bulk copyable arrays among the arguments into the result. The result is split into chunks of
+     * equal size rather than by argument, so a few huge arguments are spread over all threads as well.
+     */
+    private static void copyInParallel(Object[] arguments, Class<?> type, Object flattenedArray, int length) {
+        int[] offsets = new int[arguments.length];
+        int[] lengths = new int[arguments.length];
+        for (int i = 0, position = 0; i < arguments.length; i++) {
+            offsets[i] = position;
+            lengths[i] = isArray(arguments[i]) ? Array.getLength(arguments[i]) : 1;
+            position += lengths[i];
+        }
+
+        int chunkSize = Math.max(MIN_PARALLEL_CHUNK, length / (4 * ForkJoinPool.getCommonPoolParallelism()) + 1);
+        int chunkCount = (int) (((long) length + chunkSize - 1) / chunkSize);
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+            int start = chunk * chunkSize;
+            int end = (int) Math.min((long) start + chunkSize, length);
+
+            // Arguments with equal offsets are empty, so starting at any of them is fine
+            int argument = Arrays.binarySearch(offsets, start);
+            if (argument < 0) {
+                argument = -argument - 2;
+            }
+            for (int position = start; position < end && argument < arguments.length; argument++) {
+                int argumentEnd = offsets[argument] + lengths[argument];
+                if (argumentEnd <= position) {
+                    continue;
+                }
+                int copyEnd = Math.min(argumentEnd, end);
+                Object arg = arguments[argument];
+                if (isArray(arg) && isBulkCopyable(arg, type)) {
+                    System.arraycopy(arg, position - offsets[argument], flattenedArray, position, copyEnd - position);
+                }
+                position = copyEnd;
+            }
+        });
+    }
+
 }
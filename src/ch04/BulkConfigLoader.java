@@ -0,0 +1,183 @@
+package ch04;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Loads many config files concurrently, one virtual thread per file.
+ * <p>
+ * The number of files parsed at the same time is bounded, so a large directory never exhausts
+ * the file handles of the process. Failures are collected per file instead of aborting the whole
+ * load, and the parse time of every file is recorded, whether it failed or not.
+ */
+public class BulkConfigLoader {
+
+    private static final int DEFAULT_MAX_OPEN_FILES = 64;
+
+    private final Semaphore openFilePermits;
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Path.of(System.getProperty("user.dir"), "src", "ch04");
+        ConfigSet configs = new BulkConfigLoader().loadDirectory(directory,
+                configFile -> configFile.getFileName().toString().equals("user-interface.cfg") ? UserInterfaceConfig.class : null);
+
+        System.out.println(configs.get(directory.resolve("user-interface.cfg"), UserInterfaceConfig.class));
+        configs.timings().forEach((configFile, time) -> System.out.printf("%s parsed in %d us\n", configFile.getFileName(), time.toNanos() / 1000));
+    }
+
+    public BulkConfigLoader() {
+        this(DEFAULT_MAX_OPEN_FILES);
+    }
+
+    public BulkConfigLoader(int maxOpenFiles) {
+        if (maxOpenFiles <= 0) {
+            throw new IllegalArgumentException("Max open files must be positive");
+        }
+        this.openFilePermits = new Semaphore(maxOpenFiles);
+    }
+
+    /**
+     * Loads every {@code .cfg} file of the given directory into the class the resolver returns for it.
+     * Files for which the resolver returns null are skipped.
+     */
+    public ConfigSet loadDirectory(Path directory, Function<Path, Class<?>> configClassResolver) throws IOException {
+        List<ConfigSource<?>> sources = new ArrayList<>();
+        try (DirectoryStream<Path> configFiles = Files.newDirectoryStream(directory, "*.cfg")) {
+            for (Path configFile : configFiles) {
+                Class<?> configClass = configClassResolver.apply(configFile);
+                if (configClass != null) {
+                    sources.add(new ConfigSource<>(configClass, configFile));
+                }
+            }
+        }
+        return loadAll(sources);
+    }
+
+    /**
+     * Loads all given config files concurrently and waits until every one of them is loaded or failed
+     *
+     * @throws IllegalArgumentException if two sources have the same config file, as results are keyed by file
+     */
+    public ConfigSet loadAll(List<ConfigSource<?>> sources) {
+        Set<Path> configFiles = new HashSet<>();
+        for (ConfigSource<?> source : sources) {
+            if (!configFiles.add(source.configFile())) {
+                throw new IllegalArgumentException("Config file is loaded more than once: " + source.configFile());
+            }
+        }
+
+        Map<Path, Future<Object>> futures = new LinkedHashMap<>();
+        Map<Path, Duration> timings = Collections.synchronizedMap(new LinkedHashMap<>());
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (ConfigSource<?> source : sources) {
+                futures.put(source.configFile(), executor.submit(() -> load(source, timings)));
+            }
+        }
+
+        // The executor was closed, so every task has completed at this point
+        Map<Path, Object> configs = new LinkedHashMap<>();
+        Map<Path, Throwable> errors = new LinkedHashMap<>();
+        for (Map.Entry<Path, Future<Object>> future : futures.entrySet()) {
+            try {
+                configs.put(future.getKey(), future.getValue().get());
+            } catch (ExecutionException ex) {
+                errors.put(future.getKey(), ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                errors.put(future.getKey(), ex);
+            }
+        }
+        return new ConfigSet(configs, errors, new LinkedHashMap<>(timings));
+    }
+
+    /***** Helper Methods *****/
+
+    private Object load(ConfigSource<?> source, Map<Path, Duration> timings) throws InterruptedException {
+        openFilePermits.acquire();
+        try {
+            long start = System.nanoTime();
+            try {
+                return ConfigLoader.createConfigObject(source.configClass(), source.configFile());
+            } finally {
+                timings.put(source.configFile(), Duration.ofNanos(System.nanoTime() - start));
+            }
+        } finally {
+            openFilePermits.release();
+        }
+    }
+
+    /**
+     * A config file together with the class it is loaded into
+     */
+    public record ConfigSource<T>(Class<T> configClass, Path configFile) {}
+
+    /**
+     * Result of a bulk load: the loaded config objects, the failures and the parse time per file
+     */
+    public static final class ConfigSet {
+
+        private final Map<Path, Object> configs;
+        private final Map<Path, Throwable> errors;
+        private final Map<Path, Duration> timings;
+
+        private ConfigSet(Map<Path, Object> configs, Map<Path, Throwable> errors, Map<Path, Duration> timings) {
+            this.configs = Collections.unmodifiableMap(configs);
+            this.errors = Collections.unmodifiableMap(errors);
+            this.timings = Collections.unmodifiableMap(timings);
+        }
+
+        /**
+         * Returns the config object loaded from the given file
+         *
+         * @throws IllegalStateException if loading the file failed, IllegalArgumentException if it was not part of the load
+         */
+        public <T> T get(Path configFile, Class<T> configClass) {
+            Object config = configs.get(configFile);
+            if (config == null) {
+                Throwable error = errors.get(configFile);
+                throw error != null
+                        ? new IllegalStateException("Config file failed to load: " + configFile, error)
+                        : new IllegalArgumentException("Config file was not loaded: " + configFile);
+            }
+            return configClass.cast(config);
+        }
+
+        public Map<Path, Object> configs() {
+            return configs;
+        }
+
+        public Map<Path, Throwable> errors() {
+            return errors;
+        }
+
+        /**
+         * Returns the parse time of every file, loaded or failed, in the order they finished
+         */
+        public Map<Path, Duration> timings() {
+            return timings;
+        }
+
+        public boolean hasErrors() {
+            return !errors.isEmpty();
+        }
+
+    }
+
+}
@@ -0,0 +1,529 @@
+package ch04;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.RecordComponent;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binder of config files into instances of a config class, compiled once per class.
+ * <p>
+ * The binder holds a constructor handle and, for every field, the field name as bytes, a setter
+ * handle and a value parser resolved by the field type from the {@link ConfigConverters}. Binders
+ * are cached in a {@link ClassValue}, so loading a config class that was already seen does no
+ * reflective lookups at all.
+ * <p>
+ * Records, and classes without a no-arg constructor but with a single constructor taking all fields,
+ * are bound without writing any field: the parsed values are collected first and passed to that
+ * constructor in a single call. Their fields can stay final, and the final fields of records are
+ * trusted by the JIT, which may then fold config reads into constants.
+ * <p>
+ * Values of primitive properties are parsed and collected as raw bits in a {@code long[]}, and passed
+ * on to the constructor or setter through handles that convert them back, so they are never boxed.
+ */
+final class ConfigBinder {
+
+    private static final ClassValue<ConfigBinder> BINDERS = new ClassValue<>() {
+        @Override
+        protected ConfigBinder computeValue(Class<?> type) {
+            return new ConfigBinder(type);
+        }
+    };
+
+    private static final PropertyBinding[] NO_BINDINGS = new PropertyBinding[0];
+
+    // Reference value of properties that were never assigned
+    private static final Object UNSET = new Object();
+
+    private static final MethodHandle REFERENCE_VALUE;
+    private static final MethodHandle PRIMITIVE_VALUE;
+    private static final MethodHandle INT_BITS_TO_FLOAT;
+    private static final MethodHandle LONG_BITS_TO_DOUBLE;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            REFERENCE_VALUE = lookup.findVirtual(Values.class, "reference", MethodType.methodType(Object.class, int.class));
+            PRIMITIVE_VALUE = lookup.findVirtual(Values.class, "primitive", MethodType.methodType(long.class, int.class));
+            INT_BITS_TO_FLOAT = lookup.findStatic(Float.class, "intBitsToFloat", MethodType.methodType(float.class, int.class));
+            LONG_BITS_TO_DOUBLE = lookup.findStatic(Double.class, "longBitsToDouble", MethodType.methodType(double.class, long.class));
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private final Class<?> type;
+    // Takes the collected values for records and all-args classes, nothing otherwise
+    private final MethodHandle constructor;
+    private final boolean constructorBound;
+    private final PropertyBinding[] bindings;
+    private final String schema;
+
+    private ConfigBinder(Class<?> type) {
+        this.type = type;
+
+        MethodHandles.Lookup lookup;
+        try {
+            lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+        } catch (IllegalAccessException ex) {
+            throw new IllegalArgumentException("Config type " + type.getTypeName() + " is not accessible", ex);
+        }
+
+        List<Field> fields = propertyFieldsOf(type);
+        Constructor<?> allArgsConstructor = null;
+        if (type.isRecord() || !hasNoArgConstructor(type)) {
+            allArgsConstructor = allArgsConstructorOf(type, fields);
+            // The bindings follow the constructor parameters
+            fields = fieldsInParameterOrder(type, allArgsConstructor, fields);
+        }
+        this.constructorBound = allArgsConstructor != null;
+
+        try {
+            this.constructor = constructorBound
+                    ? valuesConstructorOf(lookup.unreflectConstructor(allArgsConstructor))
+                    : lookup.findConstructor(type, MethodType.methodType(void.class))
+                            .asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            throw new IllegalArgumentException("Config type " + type.getTypeName() + " has no accessible constructor", ex);
+        }
+
+        List<PropertyBinding> propertyBindings = new ArrayList<>();
+        for (Field field : fields) {
+            try {
+                MethodHandle getter;
+                MethodHandle setter = null;
+                if (constructorBound) {
+                    getter = lookup.unreflectGetter(field);
+                } else {
+                    // Allows final fields to be written through the setter handle
+                    field.setAccessible(true);
+                    getter = lookup.unreflectGetter(field);
+                    setter = lookup.unreflectSetter(field);
+                    setter = field.getType().isPrimitive()
+                            ? MethodHandles.filterArguments(setter, 1, fromBits(field.getType()))
+                                    .asType(MethodType.methodType(void.class, Object.class, long.class))
+                            : setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+                }
+                getter = getter.asType(MethodType.methodType(Object.class, Object.class));
+                ValueParser valueParser = ConfigConverters.parserOf(field.getType(), field.getGenericType());
+                PrimitiveParser primitiveParser = ConfigConverters.primitiveParserOf(field.getType());
+                propertyBindings.add(new PropertyBinding(propertyBindings.size(), field, getter, setter, valueParser, primitiveParser));
+            } catch (IllegalAccessException ex) {
+                throw new IllegalArgumentException("Field " + field.getName() + " is not accessible", ex);
+            }
+        }
+        this.bindings = propertyBindings.toArray(NO_BINDINGS);
+        this.schema = schemaOf(fields);
+    }
+
+    /**
+     * Returns the cached binder of the given class, compiling it on first use
+     */
+    static ConfigBinder of(Class<?> type) {
+        return BINDERS.get(type);
+    }
+
+    /**
+     * Returns whether config instances are created through an all-args constructor instead of field setters
+     */
+    boolean isConstructorBound() {
+        return constructorBound;
+    }
+
+    /**
+     * Returns the holder that collects the property values of a new config instance.
+     * Properties that are never assigned keep their default.
+     */
+    Values newValues() {
+        return new Values(bindings.length);
+    }
+
+    /**
+     * Creates a config instance from the collected property values. Records and all-args classes are
+     * created with a single constructor call, other classes through the no-arg constructor and the
+     * setters of the assigned properties.
+     */
+    Object create(Values values) {
+        if (constructorBound) {
+            values.clearUnset();
+            try {
+                return constructor.invokeExact(values);
+            } catch (Throwable ex) {
+                throw new IllegalStateException("Failed to create an instance of " + type.getTypeName(), ex);
+            }
+        }
+
+        Object configInstance;
+        try {
+            configInstance = constructor.invokeExact();
+        } catch (Throwable ex) {
+            throw new IllegalStateException("Failed to create an instance of " + type.getTypeName(), ex);
+        }
+        for (PropertyBinding binding : bindings) {
+            if (values.isAssigned(binding.index)) {
+                binding.set(configInstance, values);
+            }
+        }
+        return configInstance;
+    }
+
+    PropertyBinding[] bindings() {
+        return bindings;
+    }
+
+    /**
+     * Returns the names and generic types of all properties in binding order, e.g. {@code port:int;hosts:java.util.List<java.lang.String>}.
+     * Values stored for one schema can only be bound by a binder with an equal schema.
+     */
+    String schema() {
+        return schema;
+    }
+
+    /**
+     * Returns the binding of the property with the given name, or null if the config class has no such field
+     */
+    PropertyBinding binding(String name) {
+        for (PropertyBinding binding : bindings) {
+            if (binding.name().equals(name)) {
+                return binding;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the binding of the current property of the parser, or null if the config class has no such field.
+     * Keys are matched against the field names as bytes, without being decoded.
+     */
+    PropertyBinding binding(ConfigParser parser) {
+        for (PropertyBinding binding : bindings) {
+            if (parser.keyEquals(binding.utf8Name)) {
+                return binding;
+            }
+        }
+        return null;
+    }
+
+    /***** Helper Methods *****/
+
+    private static List<Field> propertyFieldsOf(Class<?> type) {
+        List<Field> fields = new ArrayList<>();
+        if (type.isRecord()) {
+            // Record components are the only instance fields, in the order of the canonical constructor
+            for (RecordComponent component : type.getRecordComponents()) {
+                try {
+                    fields.add(type.getDeclaredField(component.getName()));
+                } catch (NoSuchFieldException ex) {
+                    throw new IllegalStateException("Record component has no field: " + component.getName(), ex);
+                }
+            }
+            return fields;
+        }
+
+        for (Field field : type.getDeclaredFields()) {
+            if (!field.isSynthetic() && !Modifier.isStatic(field.getModifiers())) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    private static String schemaOf(List<Field> fields) {
+        StringBuilder schema = new StringBuilder();
+        for (Field field : fields) {
+            schema.append(field.getName()).append(':').append(field.getGenericType().getTypeName()).append(';');
+        }
+        return schema.toString();
+    }
+
+    private static boolean hasNoArgConstructor(Class<?> type) {
+        try {
+            type.getDeclaredConstructor();
+            return true;
+        } catch (NoSuchMethodException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Finds the canonical constructor of a record, or the single constructor of a class that takes as many
+     * parameters as the class has fields
+     */
+    private static Constructor<?> allArgsConstructorOf(Class<?> type, List<Field> fields) {
+        if (type.isRecord()) {
+            Class<?>[] componentTypes = new Class<?>[fields.size()];
+            for (int i = 0; i < componentTypes.length; i++) {
+                componentTypes[i] = fields.get(i).getType();
+            }
+            try {
+                return type.getDeclaredConstructor(componentTypes);
+            } catch (NoSuchMethodException ex) {
+                throw new IllegalStateException("Record has no canonical constructor: " + type.getTypeName(), ex);
+            }
+        }
+
+        Constructor<?> allArgsConstructor = null;
+        for (Constructor<?> constructor : type.getDeclaredConstructors()) {
+            if (constructor.isSynthetic() || constructor.getParameterCount() != fields.size()) {
+                continue;
+            }
+            if (allArgsConstructor != null) {
+                throw new IllegalArgumentException("Config type " + type.getTypeName()
+                        + " has more than one constructor taking all fields: " + allArgsConstructor + " and " + constructor);
+            }
+            allArgsConstructor = constructor;
+        }
+        if (allArgsConstructor == null) {
+            throw new IllegalArgumentException("Config type " + type.getTypeName()
+                    + " needs a no-arg constructor or a constructor taking all fields");
+        }
+        return allArgsConstructor;
+    }
+
+    /**
+     * Orders the fields like the parameters of the all-args constructor. Parameters are matched to fields of
+     * the same type by name if the class was compiled with {@code -parameters}, and otherwise by their type alone.
+     */
+    private static List<Field> fieldsInParameterOrder(Class<?> type, Constructor<?> constructor, List<Field> fields) {
+        if (type.isRecord()) {
+            // Component order is the parameter order of the canonical constructor
+            return fields;
+        }
+
+        List<Field> remainingFields = new ArrayList<>(fields);
+        List<Field> orderedFields = new ArrayList<>();
+        for (Parameter parameter : constructor.getParameters()) {
+            Field parameterField = null;
+            for (Field field : remainingFields) {
+                if (field.getType() != parameter.getType()
+                        || parameter.isNamePresent() && !field.getName().equals(parameter.getName())) {
+                    continue;
+                }
+                if (parameterField != null) {
+                    throw new IllegalArgumentException(String.format(
+                            "Parameter %s of %s matches both fields %s and %s, compile it with -parameters or add a no-arg constructor",
+                            parameter, constructor, parameterField.getName(), field.getName()));
+                }
+                parameterField = field;
+            }
+            if (parameterField == null) {
+                throw new IllegalArgumentException(String.format(
+                        "Parameter %s of %s matches no field of the config type", parameter, constructor));
+            }
+            remainingFields.remove(parameterField);
+            orderedFields.add(parameterField);
+        }
+        return orderedFields;
+    }
+
+    /**
+     * Adapts the all-args constructor to take a single {@link Values} holder. Every parameter is read from the
+     * holder by its own filter, primitive parameters straight from the raw bits, so no argument is boxed.
+     */
+    private static MethodHandle valuesConstructorOf(MethodHandle constructor) {
+        MethodType constructorType = constructor.type();
+        MethodHandle[] parameterFilters = new MethodHandle[constructorType.parameterCount()];
+        for (int i = 0; i < parameterFilters.length; i++) {
+            Class<?> parameterType = constructorType.parameterType(i);
+            parameterFilters[i] = parameterType.isPrimitive()
+                    ? MethodHandles.filterReturnValue(MethodHandles.insertArguments(PRIMITIVE_VALUE, 1, i), fromBits(parameterType))
+                    : MethodHandles.insertArguments(REFERENCE_VALUE, 1, i)
+                            .asType(MethodType.methodType(parameterType, Values.class));
+        }
+
+        // (Values, Values, ...) -> instance, then every parameter is bound to the same holder
+        MethodHandle filteredConstructor = MethodHandles.filterArguments(constructor, 0, parameterFilters);
+        return MethodHandles.permuteArguments(filteredConstructor,
+                        MethodType.methodType(constructorType.returnType(), Values.class),
+                        new int[parameterFilters.length])
+                .asType(MethodType.methodType(Object.class, Values.class));
+    }
+
+    /**
+     * Returns a handle that converts the raw bits of a primitive value back to the given primitive type
+     */
+    private static MethodHandle fromBits(Class<?> primitiveType) {
+        if (primitiveType == double.class) {
+            return LONG_BITS_TO_DOUBLE;
+        } else if (primitiveType == float.class) {
+            return MethodHandles.filterReturnValue(castFromLong(int.class), INT_BITS_TO_FLOAT);
+        }
+        // Narrows integral values and tests the lowest bit for booleans
+        return castFromLong(primitiveType);
+    }
+
+    private static MethodHandle castFromLong(Class<?> primitiveType) {
+        return MethodHandles.explicitCastArguments(MethodHandles.identity(long.class), MethodType.methodType(primitiveType, long.class));
+    }
+
+    /**
+     * Returns the raw bits of a boxed primitive value, as they are stored in the {@link Values} holder
+     */
+    private static long bitsOf(Object value) {
+        if (value instanceof Double doubleValue) {
+            return Double.doubleToRawLongBits(doubleValue);
+        } else if (value instanceof Float floatValue) {
+            return Float.floatToRawIntBits(floatValue);
+        } else if (value instanceof Boolean booleanValue) {
+            return booleanValue ? 1 : 0;
+        } else if (value instanceof Character charValue) {
+            return charValue;
+        }
+        return ((Number) value).longValue();
+    }
+
+    /**
+     * Parses the current value or array element of a parser into a value of a specific type
+     */
+    @FunctionalInterface
+    interface ValueParser {
+        Object parse(ConfigParser parser);
+    }
+
+    /**
+     * Parses the current value of a parser into the raw bits of a primitive value, without boxing it:
+     * integral values as they are, booleans as 0 or 1 and floating point values as their IEEE 754 bits
+     */
+    @FunctionalInterface
+    interface PrimitiveParser {
+        long parse(ConfigParser parser);
+    }
+
+    /**
+     * Property values collected for a new config instance. References and the raw bits of primitives are
+     * kept in separate arrays, both indexed like the bindings.
+     */
+    static final class Values {
+
+        private final Object[] references;
+        private final long[] primitives;
+
+        private Values(int propertyCount) {
+            this.references = new Object[propertyCount];
+            this.primitives = new long[propertyCount];
+            Arrays.fill(references, UNSET);
+        }
+
+        private boolean isAssigned(int index) {
+            return references[index] != UNSET;
+        }
+
+        /**
+         * Replaces the marker of unassigned references by null, the default of constructor parameters.
+         * Unassigned primitives already hold zero bits.
+         */
+        private void clearUnset() {
+            for (int i = 0; i < references.length; i++) {
+                if (references[i] == UNSET) {
+                    references[i] = null;
+                }
+            }
+        }
+
+        private Object reference(int index) {
+            return references[index];
+        }
+
+        private long primitive(int index) {
+            return primitives[index];
+        }
+
+    }
+
+    /**
+     * Binding of a single property key to a field
+     */
+    static final class PropertyBinding {
+
+        private final int index;
+        private final String name;
+        private final byte[] utf8Name;
+        private final Class<?> type;
+        private final MethodHandle getter;
+        // Takes the instance and the value, or its raw bits for primitive fields
+        private final MethodHandle setter;
+        private final ValueParser valueParser;
+        // Null for reference fields and for primitive fields with a registered converter
+        private final PrimitiveParser primitiveParser;
+
+        private PropertyBinding(int index, Field field, MethodHandle getter, MethodHandle setter,
+                                ValueParser valueParser, PrimitiveParser primitiveParser) {
+            this.index = index;
+            this.name = field.getName();
+            this.utf8Name = name.getBytes(StandardCharsets.UTF_8);
+            this.type = field.getType();
+            this.getter = getter;
+            this.setter = setter;
+            this.valueParser = valueParser;
+            this.primitiveParser = primitiveParser;
+        }
+
+        String name() {
+            return name;
+        }
+
+        Class<?> type() {
+            return type;
+        }
+
+        /**
+         * Parses the current value of the parser into the values of a new config instance
+         */
+        void parseInto(ConfigParser parser, Values values) {
+            if (primitiveParser != null) {
+                values.primitives[index] = primitiveParser.parse(parser);
+                values.references[index] = null;
+            } else {
+                assign(values, valueParser.parse(parser));
+            }
+        }
+
+        /**
+         * Assigns an already typed value, boxed if the field is primitive, to the values of a new config instance
+         */
+        void assign(Values values, Object value) {
+            if (type.isPrimitive()) {
+                if (value == null) {
+                    throw new IllegalArgumentException("Primitive field " + name + " cannot be set to null");
+                }
+                values.primitives[index] = bitsOf(value);
+                values.references[index] = null;
+            } else {
+                values.references[index] = value;
+            }
+        }
+
+        Object get(Object configInstance) {
+            try {
+                return getter.invokeExact(configInstance);
+            } catch (Throwable ex) {
+                throw new IllegalStateException("Failed to get field " + name, ex);
+            }
+        }
+
+        private void set(Object configInstance, Values values) {
+            if (setter == null) {
+                throw new IllegalStateException("Field " + name + " is only set through the constructor");
+            }
+            try {
+                if (type.isPrimitive()) {
+                    setter.invokeExact(configInstance, values.primitives[index]);
+                } else {
+                    setter.invokeExact(configInstance, values.references[index]);
+                }
+            } catch (Throwable ex) {
+                throw new IllegalStateException("Failed to set field " + name, ex);
+            }
+        }
+
+    }
+
+}
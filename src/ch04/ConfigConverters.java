@@ -0,0 +1,269 @@
+package ch04;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Registry of the converters that parse config values into field types.
+ * <p>
+ * Converters are keyed by target type and resolved once per field when the binder of a config class
+ * is compiled, never per value. Besides the primitives and String, there are built-in converters for
+ * boxed types, enums, {@link Duration}, {@link InetSocketAddress}, arrays and {@code List} fields.
+ * Primitive arrays are parsed straight into their typed arrays without boxing any element.
+ */
+final class ConfigConverters {
+
+    private static final Map<Class<?>, ConfigBinder.ValueParser> CONVERTERS = new ConcurrentHashMap<>();
+    // Parsers of primitive fields that keep the value unboxed, dropped when a converter is registered for the type
+    private static final Map<Class<?>, ConfigBinder.PrimitiveParser> PRIMITIVE_PARSERS = new ConcurrentHashMap<>();
+
+    static {
+        ConfigBinder.ValueParser booleanParser = ConfigParser::booleanValue;
+        ConfigBinder.ValueParser byteParser = parser -> (byte) parser.intValue(Byte.MIN_VALUE, Byte.MAX_VALUE);
+        ConfigBinder.ValueParser shortParser = parser -> (short) parser.intValue(Short.MIN_VALUE, Short.MAX_VALUE);
+        ConfigBinder.ValueParser intParser = parser -> parser.intValue(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        ConfigBinder.ValueParser longParser = ConfigParser::longValue;
+        ConfigBinder.ValueParser floatParser = ConfigParser::floatValue;
+        ConfigBinder.ValueParser doubleParser = ConfigParser::doubleValue;
+
+        CONVERTERS.put(boolean.class, booleanParser);
+        CONVERTERS.put(Boolean.class, booleanParser);
+        CONVERTERS.put(byte.class, byteParser);
+        CONVERTERS.put(Byte.class, byteParser);
+        CONVERTERS.put(short.class, shortParser);
+        CONVERTERS.put(Short.class, shortParser);
+        CONVERTERS.put(int.class, intParser);
+        CONVERTERS.put(Integer.class, intParser);
+        CONVERTERS.put(long.class, longParser);
+        CONVERTERS.put(Long.class, longParser);
+        CONVERTERS.put(float.class, floatParser);
+        CONVERTERS.put(Float.class, floatParser);
+        CONVERTERS.put(double.class, doubleParser);
+        CONVERTERS.put(Double.class, doubleParser);
+        CONVERTERS.put(String.class, ConfigParser::stringValue);
+        CONVERTERS.put(Duration.class, parser -> parseDuration(parser.stringValue()));
+        CONVERTERS.put(InetSocketAddress.class, parser -> parseSocketAddress(parser.stringValue()));
+
+        PRIMITIVE_PARSERS.put(boolean.class, parser -> parser.booleanValue() ? 1 : 0);
+        PRIMITIVE_PARSERS.put(byte.class, parser -> parser.intValue(Byte.MIN_VALUE, Byte.MAX_VALUE));
+        PRIMITIVE_PARSERS.put(short.class, parser -> parser.intValue(Short.MIN_VALUE, Short.MAX_VALUE));
+        PRIMITIVE_PARSERS.put(int.class, parser -> parser.intValue(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        PRIMITIVE_PARSERS.put(long.class, ConfigParser::longValue);
+        PRIMITIVE_PARSERS.put(float.class, parser -> Float.floatToRawIntBits(parser.floatValue()));
+        PRIMITIVE_PARSERS.put(double.class, parser -> Double.doubleToRawLongBits(parser.doubleValue()));
+    }
+
+    private ConfigConverters() {}
+
+    /**
+     * Registers a converter for the given type, replacing any existing one.
+     * Binders that were already compiled keep the converters they resolved.
+     * Arrays and lists are always split into elements, which are parsed with the converters of their element type.
+     *
+     * @throws IllegalArgumentException if the type is an array or {@code List} type
+     */
+    static <T> void register(Class<T> type, Function<String, ? extends T> converter) {
+        if (type.isArray() || type == List.class) {
+            throw new IllegalArgumentException(
+                    "Converters cannot be registered for " + type.getTypeName() + ", register one for the element type instead");
+        }
+        CONVERTERS.put(type, parser -> converter.apply(parser.stringValue()));
+        PRIMITIVE_PARSERS.remove(type);
+    }
+
+    /**
+     * Resolves the parser of a field with the given type
+     */
+    static ConfigBinder.ValueParser parserOf(Class<?> type, Type genericType) {
+        if (type.isArray()) {
+            return arrayParserOf(type.getComponentType());
+        } else if (type == List.class) {
+            return listParserOf(genericType);
+        }
+
+        ConfigBinder.ValueParser converter = CONVERTERS.get(type);
+        if (converter != null) {
+            return converter;
+        } else if (type.isEnum()) {
+            return enumParserOf(type);
+        }
+
+        // Fields of other types only fail when a config file actually sets them
+        return parser -> {
+            throw new RuntimeException("Type is not supported: " + type.getTypeName());
+        };
+    }
+
+    /**
+     * Resolves the boxing-free parser of a primitive field, or returns null if the type is not primitive
+     * or has a registered converter
+     */
+    static ConfigBinder.PrimitiveParser primitiveParserOf(Class<?> type) {
+        return PRIMITIVE_PARSERS.get(type);
+    }
+
+    /***** Helper Methods *****/
+
+    private static ConfigBinder.ValueParser arrayParserOf(Class<?> elementType) {
+        if (elementType == int.class) {
+            return parser -> {
+                int[] elements = new int[parser.elementCount()];
+                for (int i = 0; parser.nextElement(); i++) {
+                    elements[i] = parser.intValue(Integer.MIN_VALUE, Integer.MAX_VALUE);
+                }
+                return elements;
+            };
+        } else if (elementType == long.class) {
+            return parser -> {
+                long[] elements = new long[parser.elementCount()];
+                for (int i = 0; parser.nextElement(); i++) {
+                    elements[i] = parser.longValue();
+                }
+                return elements;
+            };
+        } else if (elementType == double.class) {
+            return parser -> {
+                double[] elements = new double[parser.elementCount()];
+                for (int i = 0; parser.nextElement(); i++) {
+                    elements[i] = parser.doubleValue();
+                }
+                return elements;
+            };
+        } else if (elementType == float.class) {
+            return parser -> {
+                float[] elements = new float[parser.elementCount()];
+                for (int i = 0; parser.nextElement(); i++) {
+                    elements[i] = parser.floatValue();
+                }
+                return elements;
+            };
+        } else if (elementType == short.class) {
+            return parser -> {
+                short[] elements = new short[parser.elementCount()];
+                for (int i = 0; parser.nextElement(); i++) {
+                    elements[i] = (short) parser.intValue(Short.MIN_VALUE, Short.MAX_VALUE);
+                }
+                return elements;
+            };
+        } else if (elementType == byte.class) {
+            return parser -> {
+                byte[] elements = new byte[parser.elementCount()];
+                for (int i = 0; parser.nextElement(); i++) {
+                    elements[i] = (byte) parser.intValue(Byte.MIN_VALUE, Byte.MAX_VALUE);
+                }
+                return elements;
+            };
+        } else if (elementType == boolean.class) {
+            return parser -> {
+                boolean[] elements = new boolean[parser.elementCount()];
+                for (int i = 0; parser.nextElement(); i++) {
+                    elements[i] = parser.booleanValue();
+                }
+                return elements;
+            };
+        } else if (elementType.isPrimitive()) {
+            return parser -> {
+                throw new RuntimeException("Type is not supported: " + elementType.getTypeName() + "[]");
+            };
+        }
+
+        ConfigBinder.ValueParser elementParser = parserOf(elementType, elementType);
+        return parser -> {
+            Object[] elements = (Object[]) Array.newInstance(elementType, parser.elementCount());
+            for (int i = 0; parser.nextElement(); i++) {
+                elements[i] = elementParser.parse(parser);
+            }
+            return elements;
+        };
+    }
+
+    private static ConfigBinder.ValueParser listParserOf(Type listType) {
+        Type elementType = listType instanceof ParameterizedType parameterizedType
+                ? parameterizedType.getActualTypeArguments()[0]
+                : String.class;
+        if (!(elementType instanceof Class<?> elementClass)) {
+            return parser -> {
+                throw new RuntimeException("List element type is not supported: " + elementType.getTypeName());
+            };
+        }
+
+        ConfigBinder.ValueParser elementParser = parserOf(elementClass, elementClass);
+        return parser -> {
+            // Unlike List.of, the list may hold the null results of element converters
+            List<Object> elements = new ArrayList<>(parser.elementCount());
+            while (parser.nextElement()) {
+                elements.add(elementParser.parse(parser));
+            }
+            return Collections.unmodifiableList(elements);
+        };
+    }
+
+    private static ConfigBinder.ValueParser enumParserOf(Class<?> enumType) {
+        Map<String, Object> constantsByName = new HashMap<>();
+        for (Object constant : enumType.getEnumConstants()) {
+            constantsByName.put(((Enum<?>) constant).name(), constant);
+        }
+        return parser -> {
+            String name = parser.stringValue();
+            Object constant = constantsByName.get(name);
+            if (constant == null) {
+                throw new IllegalArgumentException(String.format(
+                        "Line %d: %s is not a constant of %s", parser.lineNumber(), name, enumType.getTypeName()));
+            }
+            return constant;
+        };
+    }
+
+    /**
+     * Parses either an ISO-8601 duration like {@code PT1M30S} or a number with one of the units
+     * {@code ms}, {@code s}, {@code m}, {@code h} and {@code d}, like {@code 500ms}
+     */
+    private static Duration parseDuration(String value) {
+        if (value.startsWith("P") || value.startsWith("p") || value.startsWith("-P")) {
+            return Duration.parse(value);
+        }
+
+        int unitStart = 0;
+        while (unitStart < value.length() && (Character.isDigit(value.charAt(unitStart)) || value.charAt(unitStart) == '-')) {
+            unitStart++;
+        }
+        long amount = Long.parseLong(value.substring(0, unitStart));
+        return switch (value.substring(unitStart).trim()) {
+            case "ms" -> Duration.ofMillis(amount);
+            case "s" -> Duration.ofSeconds(amount);
+            case "m" -> Duration.ofMinutes(amount);
+            case "h" -> Duration.ofHours(amount);
+            case "d" -> Duration.ofDays(amount);
+            default -> throw new IllegalArgumentException("Duration has no valid unit: " + value);
+        };
+    }
+
+    /**
+     * Parses a {@code host:port} address, with IPv6 hosts in brackets. The host is not resolved, so
+     * loading configs never blocks on name lookups.
+     */
+    private static InetSocketAddress parseSocketAddress(String value) {
+        int separator = value.lastIndexOf(':');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("Address is not of the form host:port: " + value);
+        }
+
+        String host = value.substring(0, separator).trim();
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        int port = Integer.parseInt(value.substring(separator + 1).trim());
+        return InetSocketAddress.createUnresolved(host, port);
+    }
+
+}
@@ -1,10 +1,9 @@
 package ch04;
 
 import java.io.File;
-import java.lang.reflect.Array;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.util.Scanner;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Function;
 
 public class ConfigLoader {
 
@@ -19,78 +18,56 @@ public class ConfigLoader {
     public static void main(String[] args) {
         var config = createConfigObject(UserInterfaceConfig.class, "user-interface.cfg");
         System.out.println(config);
-    }
-
-    @SuppressWarnings("unchecked")
-    public static <T> T createConfigObject(Class<T> targetClass, String configFilename) {
-        File configFile = new File(String.join(File.separator, BASE_PATH, configFilename));
-        try (Scanner scanner = new Scanner(configFile)) {
-            Constructor<?> defaultConstructor = targetClass.getDeclaredConstructor();
-            T configInstance = (T) defaultConstructor.newInstance();
-
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                String[] keyValuePairs = line.split("=");
-                String propertyKey = keyValuePairs[0];
-                String propertyVal = keyValuePairs[1];
 
-                Field field;
-                try {
-                    field = targetClass.getDeclaredField(propertyKey);
-                } catch (NoSuchFieldException ex) {
-                    System.err.println("Property key is not supported: " + propertyKey);
-                    continue;
-                }
-
-                Object parsedFieldValue;
-                Class<?> fieldType = field.getType();
-                if (fieldType.isArray()) {
-                    parsedFieldValue = parseArray(fieldType.getComponentType(), propertyVal);
-                } else {
-                    parsedFieldValue = parseValue(fieldType, propertyVal);
-                }
+        // Records are bound through their canonical constructor, so their fields stay final
+        var record = createConfigObject(UserInterfaceRecord.class, "user-interface.cfg");
+        System.out.println(record);
+    }
 
-                field.setAccessible(true);
-                field.set(configInstance, parsedFieldValue);
-            }
+    /**
+     * Registers a converter for fields of the given type, which receives the trimmed value of a property.
+     * Converters have to be registered before the first config class with such a field is loaded.
+     * Array and {@code List} fields use the converter of their element type, so converters cannot be registered for them.
+     */
+    public static <T> void registerConverter(Class<T> type, Function<String, ? extends T> converter) {
+        ConfigConverters.register(type, converter);
+    }
 
-            return configInstance;
+    public static <T> T createConfigObject(Class<T> targetClass, String configFilename) {
+        return createConfigObject(targetClass, Path.of(BASE_PATH, configFilename));
+    }
 
+    /**
+     * Creates a config object from the file at the given path, which may be outside of the package directory
+     */
+    public static <T> T createConfigObject(Class<T> targetClass, Path configFile) {
+        try {
+            return bindConfigObject(targetClass, ConfigParser.open(configFile));
         } catch (Exception ex) {
             throw new RuntimeException(ex);
         }
     }
 
-    private static Object parseArray(Class<?> arrayElementType, String elements) {
-        String[] elementValues = elements.split(",");
-        Object arrayInstance  = Array.newInstance(arrayElementType, elementValues.length);
-
-        for (int i = 0; i < elementValues.length; i++) {
-            Array.set(arrayInstance, i, parseValue(arrayElementType, elementValues[i]));
-        }
-        return arrayInstance;
-    }
-
-    private static Object parseValue(Class<?> fieldType, String fieldValue) {
-        if (fieldType.equals(boolean.class)) {
-            return Boolean.parseBoolean(fieldValue);
-        } else if (fieldType.equals(byte.class)) {
-            return Byte.parseByte(fieldValue);
-        } else if (fieldType.equals(short.class)) {
-            return Short.parseShort(fieldValue);
-        } else if (fieldType.equals(int.class)) {
-            return Integer.parseInt(fieldValue);
-        } else if (fieldType.equals(long.class)) {
-            return Long.parseLong(fieldValue);
-        } else if (fieldType.equals(float.class)) {
-            return Float.parseFloat(fieldValue);
-        } else if (fieldType.equals(double.class)) {
-            return Double.parseDouble(fieldValue);
-        } else if (fieldType.equals(String.class)) {
-            return fieldValue;
+    /**
+     * Binds all properties of the given parser into a new config object.
+     * The values are collected first, so records and all-args classes are created with a single constructor call.
+     */
+    static <T> T bindConfigObject(Class<T> targetClass, ConfigParser parser) {
+        ConfigBinder binder = ConfigBinder.of(targetClass);
+        ConfigBinder.Values values = binder.newValues();
+
+        while (parser.nextProperty()) {
+            ConfigBinder.PropertyBinding binding = binder.binding(parser);
+            if (binding == null) {
+                System.err.println("Property key is not supported: " + parser.key());
+                continue;
+            }
+            binding.parseInto(parser, values);
         }
 
-        throw new RuntimeException("Type is not supported: " + fieldType.getTypeName());
+        return targetClass.cast(binder.create(values));
     }
 
+    record UserInterfaceRecord(String titleText, List<String> titleFonts, List<Integer> titleFontSizes) {}
+
 }
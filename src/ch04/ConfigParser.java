@@ -0,0 +1,347 @@
+package ch04;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Single-pass scanner of {@code key=value} config files.
+ * <p>
+ * The file is read as bytes through a {@link FileChannel}, large files are memory-mapped instead of
+ * being copied to the heap. Keys and values are located as byte ranges of the file and numbers are
+ * parsed straight from these ranges, so only the final String values are allocated.
+ * <p>
+ * Every line holds one property. The key ends at the first {@code '='}, so values may contain
+ * {@code '='} themselves. Keys, values and array elements are trimmed, blank lines and lines
+ * starting with {@code '#'} or {@code '!'} are skipped. A trailing comma after the last array element
+ * is a syntax error.
+ */
+final class ConfigParser {
+
+    // Files of at least this size are memory-mapped instead of being read into a heap buffer
+    static final int MAPPING_THRESHOLD = 64 * 1024;
+
+    private static final byte ELEMENT_SEPARATOR = ',';
+
+    // Powers of ten that are exactly representable, used to parse short decimals without rounding errors
+    private static final double[] DOUBLE_POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final float[] FLOAT_POWERS_OF_TEN = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+    private static final long MAX_EXACT_DOUBLE_MANTISSA = 1L << 53;
+    private static final long MAX_EXACT_FLOAT_MANTISSA = 1L << 24;
+
+    private final ByteBuffer bytes;
+    private final int limit;
+    private int position;
+    private int lineNumber;
+
+    // Byte ranges of the current property
+    private int keyStart;
+    private int keyEnd;
+    private int valueStart;
+    private int valueEnd;
+
+    // Trimmed byte range the typed value methods parse, either the whole value or the current array element
+    private int tokenStart;
+    private int tokenEnd;
+    private int nextElementStart;
+
+    // Number of fractional digits of the last decimal parsed by decimalMantissa
+    private int fractionDigits;
+
+    ConfigParser(ByteBuffer bytes) {
+        this.bytes = bytes;
+        this.limit = bytes.limit();
+        this.position = bytes.position();
+        skipByteOrderMark();
+    }
+
+    /**
+     * Opens a parser over the content of the given file
+     */
+    static ConfigParser open(Path path) throws IOException {
+        return new ConfigParser(readContent(path));
+    }
+
+    /**
+     * Reads the content of the given file, memory-mapping it if it is large
+     */
+    static ByteBuffer readContent(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Config file is too large: " + path);
+            }
+
+            ByteBuffer bytes;
+            if (size >= MAPPING_THRESHOLD) {
+                // The mapping stays valid after the channel is closed
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                bytes = ByteBuffer.allocate((int) size);
+                while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                    // Reads until the buffer is full or the end of the file is reached
+                }
+                bytes.flip();
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Advances to the next property, skipping blank and comment lines.
+     * Returns false when the end of the file is reached.
+     */
+    boolean nextProperty() {
+        while (position < limit) {
+            int lineStart = position;
+            int lineEnd = indexOf((byte) '\n', lineStart, limit);
+            position = lineEnd < limit ? lineEnd + 1 : limit;
+            lineNumber++;
+
+            int start = skipWhitespace(lineStart, lineEnd);
+            int end = trimWhitespace(start, lineEnd);
+            if (start == end || bytes.get(start) == '#' || bytes.get(start) == '!') {
+                continue;
+            }
+
+            int separator = indexOf((byte) '=', start, end);
+            if (separator == end) {
+                throw new IllegalArgumentException(String.format(
+                        "Line %d is not a key=value property: %s", lineNumber, string(start, end)));
+            }
+
+            keyStart = start;
+            keyEnd = trimWhitespace(start, separator);
+            valueStart = skipWhitespace(separator + 1, end);
+            valueEnd = end;
+            tokenStart = valueStart;
+            tokenEnd = valueEnd;
+            nextElementStart = valueStart;
+            return true;
+        }
+        return false;
+    }
+
+    int lineNumber() {
+        return lineNumber;
+    }
+
+    String key() {
+        return string(keyStart, keyEnd);
+    }
+
+    /**
+     * Returns whether the key of the current property consists of the given bytes, without decoding it
+     */
+    boolean keyEquals(byte[] name) {
+        if (keyEnd - keyStart != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (bytes.get(keyStart + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of comma-separated elements of the current value
+     *
+     * @throws IllegalArgumentException if the value ends with a separator, which would leave an empty last element
+     */
+    int elementCount() {
+        if (valueStart == valueEnd) {
+            return 0;
+        }
+        if (bytes.get(valueEnd - 1) == ELEMENT_SEPARATOR) {
+            throw new IllegalArgumentException(String.format(
+                    "Line %d has a trailing element separator: %s", lineNumber, string(valueStart, valueEnd)));
+        }
+        int count = 1;
+        for (int i = valueStart; i < valueEnd; i++) {
+            if (bytes.get(i) == ELEMENT_SEPARATOR) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Positions the typed value methods on the next element of the current value.
+     * The first call moves to the first element; returns false after the last element.
+     */
+    boolean nextElement() {
+        if (nextElementStart > valueEnd || valueStart == valueEnd) {
+            return false;
+        }
+
+        int separator = indexOf(ELEMENT_SEPARATOR, nextElementStart, valueEnd);
+        tokenStart = skipWhitespace(nextElementStart, separator);
+        tokenEnd = trimWhitespace(tokenStart, separator);
+        nextElementStart = separator + 1;
+        return true;
+    }
+
+    // Typed values of the current token
+
+    String stringValue() {
+        return string(tokenStart, tokenEnd);
+    }
+
+    boolean booleanValue() {
+        // Same semantics as Boolean.parseBoolean, anything but "true" in any case is false
+        return tokenEnd - tokenStart == 4
+                && (bytes.get(tokenStart) | 0x20) == 't'
+                && (bytes.get(tokenStart + 1) | 0x20) == 'r'
+                && (bytes.get(tokenStart + 2) | 0x20) == 'u'
+                && (bytes.get(tokenStart + 3) | 0x20) == 'e';
+    }
+
+    int intValue(int minValue, int maxValue) {
+        long value = longValue();
+        if (value < minValue || value > maxValue) {
+            throw numberFormatException();
+        }
+        return (int) value;
+    }
+
+    long longValue() {
+        int end = tokenEnd;
+        int i = tokenStart;
+        boolean negative = i < end && bytes.get(i) == '-';
+        if (i < end && (bytes.get(i) == '-' || bytes.get(i) == '+')) {
+            i++;
+        }
+        if (i == end) {
+            throw numberFormatException();
+        }
+
+        // Accumulates negatively, so that Long.MIN_VALUE can be parsed without overflow
+        long limitValue = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = bytes.get(i) - '0';
+            if (digit < 0 || digit > 9 || value < limitValue / 10) {
+                throw numberFormatException();
+            }
+            value *= 10;
+            if (value < limitValue + digit) {
+                throw numberFormatException();
+            }
+            value -= digit;
+        }
+        return negative ? value : -value;
+    }
+
+    double doubleValue() {
+        long mantissa = decimalMantissa(tokenStart, tokenEnd);
+        if (mantissa >= 0 && mantissa <= MAX_EXACT_DOUBLE_MANTISSA && fractionDigits < DOUBLE_POWERS_OF_TEN.length) {
+            // Both operands are exact, so the single division is correctly rounded
+            double value = mantissa / DOUBLE_POWERS_OF_TEN[fractionDigits];
+            return bytes.get(tokenStart) == '-' ? -value : value;
+        }
+        return Double.parseDouble(stringValue());
+    }
+
+    float floatValue() {
+        long mantissa = decimalMantissa(tokenStart, tokenEnd);
+        if (mantissa >= 0 && mantissa <= MAX_EXACT_FLOAT_MANTISSA && fractionDigits < FLOAT_POWERS_OF_TEN.length) {
+            float value = mantissa / FLOAT_POWERS_OF_TEN[fractionDigits];
+            return bytes.get(tokenStart) == '-' ? -value : value;
+        }
+        return Float.parseFloat(stringValue());
+    }
+
+    /***** Helper Methods *****/
+
+    /**
+     * Parses a plain decimal like {@code -12.50} into its digits without the decimal point, 1250 in the
+     * example, and records the number of fractional digits. Returns -1 for anything else, like exponents,
+     * special values or too many digits, which are left to the JDK parsers.
+     */
+    private long decimalMantissa(int start, int end) {
+        int i = start;
+        if (i < end && (bytes.get(i) == '-' || bytes.get(i) == '+')) {
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        fractionDigits = 0;
+        boolean fraction = false;
+        for (; i < end; i++) {
+            byte b = bytes.get(i);
+            if (b == '.' && !fraction) {
+                fraction = true;
+                continue;
+            }
+            if (b < '0' || b > '9' || digits == 18) {
+                return -1;
+            }
+            mantissa = mantissa * 10 + (b - '0');
+            digits++;
+            if (fraction) {
+                fractionDigits++;
+            }
+        }
+        return digits == 0 ? -1 : mantissa;
+    }
+
+    private void skipByteOrderMark() {
+        if (limit - position >= 3
+                && bytes.get(position) == (byte) 0xEF
+                && bytes.get(position + 1) == (byte) 0xBB
+                && bytes.get(position + 2) == (byte) 0xBF) {
+            position += 3;
+        }
+    }
+
+    private int indexOf(byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes.get(i) == value) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    private int skipWhitespace(int from, int to) {
+        while (from < to && isWhitespace(bytes.get(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    private int trimWhitespace(int from, int to) {
+        while (to > from && isWhitespace(bytes.get(to - 1))) {
+            to--;
+        }
+        return to;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f';
+    }
+
+    private String string(int start, int end) {
+        if (bytes.hasArray()) {
+            return new String(bytes.array(), bytes.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        }
+        byte[] utf8 = new byte[end - start];
+        bytes.get(start, utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private NumberFormatException numberFormatException() {
+        return new NumberFormatException(String.format(
+                "Line %d: For input string: \"%s\"", lineNumber, stringValue()));
+    }
+
+}
@@ -0,0 +1,216 @@
+package ch04;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Registry of config objects that are reloaded when their files change.
+ * <p>
+ * A background thread watches the config directory with a {@link WatchService}. Bursts of file
+ * events are debounced: a file is reloaded once no event arrived for the debounce period, so an
+ * editor writing a file in several steps causes a single reload. A changed file is parsed into
+ * a new config instance, which is published with a single volatile write. Readers never block
+ * and always see either the previous or the new instance, never a partially applied one.
+ * <p>
+ * If a changed file cannot be parsed, the previous instance stays published.
+ */
+public class ConfigRegistry implements Closeable {
+
+    private static final Duration DEFAULT_DEBOUNCE = Duration.ofMillis(200);
+
+    private final Path directory;
+    private final long debounceMillis;
+    private final WatchService watchService;
+    private final Map<String, ConfigEntry<?>> entries = new ConcurrentHashMap<>();
+    private final Thread watcherThread;
+    private volatile boolean closed;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path directory = Path.of(System.getProperty("user.dir"), "src", "ch04");
+        try (ConfigRegistry registry = new ConfigRegistry(directory)) {
+            ConfigEntry<UserInterfaceConfig> userInterfaceConfig =
+                    registry.register("user-interface.cfg", UserInterfaceConfig.class);
+            userInterfaceConfig.subscribe((oldConfig, newConfig) -> System.out.println("Reloaded: " + newConfig));
+
+            System.out.println(userInterfaceConfig.get());
+            System.out.println("Watching " + directory + " for 30 seconds");
+            Thread.sleep(30_000);
+        }
+    }
+
+    public ConfigRegistry(Path directory) throws IOException {
+        this(directory, DEFAULT_DEBOUNCE);
+    }
+
+    public ConfigRegistry(Path directory, Duration debounce) throws IOException {
+        this.directory = directory;
+        this.debounceMillis = debounce.toMillis();
+        this.watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        this.watcherThread = new Thread(this::watchChanges, "config-watcher-" + directory.getFileName());
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    /**
+     * Loads the given file of the watched directory and keeps it up to date from now on
+     */
+    public <T> ConfigEntry<T> register(String configFilename, Class<T> configClass) {
+        ConfigEntry<T> entry = new ConfigEntry<>(directory.resolve(configFilename), configClass);
+        if (entries.putIfAbsent(configFilename, entry) != null) {
+            throw new IllegalStateException("Config file is already registered: " + configFilename);
+        }
+
+        // Loaded only once the watcher sees the entry, so a change from now on is never lost
+        try {
+            entry.load();
+        } catch (RuntimeException ex) {
+            entries.remove(configFilename, entry);
+            throw ex;
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the current config object of the given registered file
+     */
+    public <T> T get(String configFilename, Class<T> configClass) {
+        ConfigEntry<?> entry = entries.get(configFilename);
+        Object config = entry != null ? entry.get() : null;
+        if (config == null) {
+            // A file that is still being registered has no config object yet
+            throw new IllegalArgumentException("Config file is not registered: " + configFilename);
+        }
+        return configClass.cast(config);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        // Wakes the watcher thread up with a ClosedWatchServiceException
+        watchService.close();
+    }
+
+    /***** Helper Methods *****/
+
+    private void watchChanges() {
+        Set<String> pendingFilenames = new HashSet<>();
+        try {
+            while (!closed) {
+                WatchKey key = pendingFilenames.isEmpty()
+                        ? watchService.take()
+                        : watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+
+                if (key == null) {
+                    // No further events within the debounce period
+                    reload(pendingFilenames);
+                    pendingFilenames.clear();
+                    continue;
+                }
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // Events were lost, so any registered file may have changed
+                        pendingFilenames.addAll(entries.keySet());
+                    } else if (event.context() instanceof Path changedFile) {
+                        pendingFilenames.add(changedFile.toString());
+                    }
+                }
+                key.reset();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException ex) {
+            // The registry was closed
+        }
+    }
+
+    private void reload(Set<String> changedFilenames) {
+        for (String filename : changedFilenames) {
+            ConfigEntry<?> entry = entries.get(filename);
+            if (entry != null) {
+                entry.reload();
+            }
+        }
+    }
+
+    /**
+     * Current config object of a single file, together with the subscribers to its changes
+     */
+    public static final class ConfigEntry<T> {
+
+        private final Path configFile;
+        private final Class<T> configClass;
+        private final List<BiConsumer<T, T>> subscribers = new CopyOnWriteArrayList<>();
+        private volatile T current;
+
+        private ConfigEntry(Path configFile, Class<T> configClass) {
+            this.configFile = configFile;
+            this.configClass = configClass;
+        }
+
+        /**
+         * Returns the current config object, without any locking
+         */
+        public T get() {
+            return current;
+        }
+
+        /**
+         * Registers a subscriber that is called with the previous and the new config object after every reload
+         */
+        public void subscribe(BiConsumer<T, T> subscriber) {
+            subscribers.add(subscriber);
+        }
+
+        /**
+         * Loads the initial config object. Loads and reloads of an entry are serialized, so the object that was
+         * parsed last is always the one that was read last.
+         */
+        private synchronized void load() {
+            current = ConfigLoader.createConfigObject(configClass, configFile);
+        }
+
+        private synchronized void reload() {
+            T newConfig;
+            try {
+                newConfig = ConfigLoader.createConfigObject(configClass, configFile);
+            } catch (RuntimeException ex) {
+                System.err.println("Failed to reload " + configFile + ", keeping the previous config: " + ex);
+                return;
+            }
+
+            T oldConfig = current;
+            current = newConfig;
+            if (oldConfig == null) {
+                // Reloaded while the initial load is still pending, nobody can have subscribed yet
+                return;
+            }
+
+            for (BiConsumer<T, T> subscriber : subscribers) {
+                try {
+                    subscriber.accept(oldConfig, newConfig);
+                } catch (RuntimeException ex) {
+                    System.err.println("Config subscriber failed: " + ex);
+                }
+            }
+        }
+
+    }
+
+}
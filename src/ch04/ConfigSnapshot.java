@@ -0,0 +1,448 @@
+package ch04;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary snapshot of parsed config objects, used to skip text parsing on cold starts.
+ * <p>
+ * A snapshot holds, for every config file, the config class, the schema of the class, a CRC32C
+ * checksum of the file content and the typed value of every field. The checksum covers exactly the
+ * bytes the snapshotted values were parsed from. Loading a config through an open snapshot only
+ * checksums the file: if it is unchanged and the config class still has the same fields, the config
+ * object is bound straight from the memory-mapped snapshot, otherwise it falls back to parsing the text.
+ * <pre>
+ * Snapshot layout (big-endian):
+ *
+ *      int     MAGIC
+ *      int     VERSION
+ *      int     number of entries
+ *      entry*  string path, string config class, string schema, long checksum, int length of the field data,
+ *              followed by the field data: int field count and (string name, byte tag, value)*
+ * </pre>
+ * Strings are written as an int length followed by UTF-8 bytes. Primitive arrays are written as an
+ * int length followed by the raw elements, so they are copied out of the mapping in bulk. Configs
+ * with fields of a type that has no binary form are written without field data and always parsed.
+ */
+public final class ConfigSnapshot {
+
+    private static final int MAGIC = 0x43464753; // "CFGS"
+    private static final int VERSION = 2;
+    private static final int NOT_SNAPSHOTTED = -1;
+
+    // Value tags
+    private static final byte NULL = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte BYTE = 2;
+    private static final byte SHORT = 3;
+    private static final byte INT = 4;
+    private static final byte LONG = 5;
+    private static final byte FLOAT = 6;
+    private static final byte DOUBLE = 7;
+    private static final byte STRING = 8;
+    private static final byte ENUM = 9;
+    private static final byte DURATION = 10;
+    private static final byte BOOLEAN_ARRAY = 11;
+    private static final byte BYTE_ARRAY = 12;
+    private static final byte SHORT_ARRAY = 13;
+    private static final byte INT_ARRAY = 14;
+    private static final byte LONG_ARRAY = 15;
+    private static final byte FLOAT_ARRAY = 16;
+    private static final byte DOUBLE_ARRAY = 17;
+    private static final byte STRING_ARRAY = 18;
+
+    private final ByteBuffer snapshot;
+    private final Map<String, Entry> entries;
+
+    public static void main(String[] args) throws IOException {
+        Path configFile = Path.of(System.getProperty("user.dir"), "src", "ch04", "user-interface.cfg");
+        Path snapshotFile = Files.createTempFile("config", ".snapshot");
+
+        ConfigSnapshot.write(snapshotFile, Map.of(configFile, UserInterfaceConfig.class));
+
+        ConfigSnapshot snapshot = ConfigSnapshot.open(snapshotFile);
+        System.out.println(snapshot.isFresh(configFile) + ": " + snapshot.load(UserInterfaceConfig.class, configFile));
+        Files.delete(snapshotFile);
+    }
+
+    private ConfigSnapshot(ByteBuffer snapshot, Map<String, Entry> entries) {
+        this.snapshot = snapshot;
+        this.entries = entries;
+    }
+
+    /**
+     * Parses the given config files into their config classes and writes a snapshot of the parsed config objects.
+     * Every file is read once, and its checksum is taken from the same bytes that are parsed, so a file that is
+     * edited meanwhile never ends up with old values under a new checksum. The snapshot file is replaced
+     * atomically, so a concurrent reader never sees a partial snapshot.
+     *
+     * @return the parsed config objects, keyed by their file
+     */
+    public static Map<Path, Object> write(Path snapshotFile, Map<Path, ? extends Class<?>> configClassesByFile) throws IOException {
+        Map<Path, Object> configsByFile = new LinkedHashMap<>();
+        Path temporaryFile = Files.createTempFile(snapshotFile.toAbsolutePath().getParent(), "config", ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(configClassesByFile.size());
+
+            for (Map.Entry<Path, ? extends Class<?>> configClass : configClassesByFile.entrySet()) {
+                Path configFile = configClass.getKey();
+                ByteBuffer content = ConfigParser.readContent(configFile);
+                long checksum = checksumOf(content.duplicate());
+                Object configInstance = ConfigLoader.bindConfigObject(configClass.getValue(), new ConfigParser(content));
+                configsByFile.put(configFile, configInstance);
+
+                writeString(keyOf(configFile), out);
+                writeString(configInstance.getClass().getName(), out);
+                writeString(ConfigBinder.of(configInstance.getClass()).schema(), out);
+                out.writeLong(checksum);
+
+                byte[] fieldData = fieldDataOf(configInstance);
+                if (fieldData == null) {
+                    out.writeInt(NOT_SNAPSHOTTED);
+                } else {
+                    out.writeInt(fieldData.length);
+                    out.write(fieldData);
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(temporaryFile);
+            throw ex;
+        }
+        Files.move(temporaryFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return configsByFile;
+    }
+
+    /**
+     * Memory-maps the given snapshot file and reads its entry table
+     */
+    public static ConfigSnapshot open(Path snapshotFile) throws IOException {
+        ByteBuffer snapshot;
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            snapshot = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (snapshot.remaining() < 3 * Integer.BYTES || snapshot.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a config snapshot: " + snapshotFile);
+        }
+        int version = snapshot.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Config snapshot version " + version + " is not supported: " + snapshotFile);
+        }
+
+        int entryCount = snapshot.getInt();
+        Map<String, Entry> entries = new HashMap<>();
+        for (int i = 0; i < entryCount; i++) {
+            String configFile = readString(snapshot);
+            String configClassName = readString(snapshot);
+            String schema = readString(snapshot);
+            long checksum = snapshot.getLong();
+            int dataLength = snapshot.getInt();
+            int dataOffset = snapshot.position();
+            if (dataLength != NOT_SNAPSHOTTED) {
+                snapshot.position(dataOffset + dataLength);
+            }
+            entries.put(configFile, new Entry(configClassName, schema, checksum, dataLength == NOT_SNAPSHOTTED ? -1 : dataOffset));
+        }
+        return new ConfigSnapshot(snapshot, entries);
+    }
+
+    /**
+     * Loads the given config file, from the snapshot if the file is unchanged and by parsing it otherwise
+     */
+    public <T> T load(Class<T> configClass, Path configFile) {
+        try {
+            ByteBuffer content = ConfigParser.readContent(configFile);
+            Entry entry = entries.get(keyOf(configFile));
+            if (entry != null && entry.isBindable(configClass) && entry.checksum == checksumOf(content.duplicate())) {
+                return configClass.cast(bind(configClass, entry));
+            }
+            return ConfigLoader.bindConfigObject(configClass, new ConfigParser(content));
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Returns whether the given config file can be loaded from the snapshot, i.e. it is unchanged
+     */
+    public boolean isFresh(Path configFile) throws IOException {
+        Entry entry = entries.get(keyOf(configFile));
+        return entry != null && entry.dataOffset >= 0 && entry.checksum == checksumOf(ConfigParser.readContent(configFile));
+    }
+
+    /***** Helper Methods *****/
+
+    private static String keyOf(Path configFile) {
+        return configFile.toAbsolutePath().normalize().toString();
+    }
+
+    private static long checksumOf(ByteBuffer content) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(content);
+        return checksum.getValue();
+    }
+
+    private Object bind(Class<?> configClass, Entry entry) {
+        // Every load reads through its own view of the shared mapping
+        ByteBuffer data = snapshot.duplicate().position(entry.dataOffset);
+        ConfigBinder binder = ConfigBinder.of(configClass);
+        ConfigBinder.Values values = binder.newValues();
+
+        int fieldCount = data.getInt();
+        for (int i = 0; i < fieldCount; i++) {
+            ConfigBinder.PropertyBinding binding = binder.binding(readString(data));
+            Object value = readValue(data, binding != null ? binding.type() : null);
+            if (binding != null) {
+                binding.assign(values, value);
+            }
+        }
+        return binder.create(values);
+    }
+
+    /**
+     * Encodes the fields of the given config object, or returns null if a field has no binary form
+     */
+    private static byte[] fieldDataOf(Object configInstance) throws IOException {
+        ConfigBinder.PropertyBinding[] bindings = ConfigBinder.of(configInstance.getClass()).bindings();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(bindings.length);
+        for (ConfigBinder.PropertyBinding binding : bindings) {
+            writeString(binding.name(), out);
+            if (!writeValue(binding.get(configInstance), out)) {
+                return null;
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the tagged value, returns false if the value has no binary form
+     */
+    private static boolean writeValue(Object value, DataOutputStream out) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Boolean booleanValue) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean(booleanValue);
+        } else if (value instanceof Byte byteValue) {
+            out.writeByte(BYTE);
+            out.writeByte(byteValue);
+        } else if (value instanceof Short shortValue) {
+            out.writeByte(SHORT);
+            out.writeShort(shortValue);
+        } else if (value instanceof Integer intValue) {
+            out.writeByte(INT);
+            out.writeInt(intValue);
+        } else if (value instanceof Long longValue) {
+            out.writeByte(LONG);
+            out.writeLong(longValue);
+        } else if (value instanceof Float floatValue) {
+            out.writeByte(FLOAT);
+            out.writeFloat(floatValue);
+        } else if (value instanceof Double doubleValue) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(doubleValue);
+        } else if (value instanceof String stringValue) {
+            out.writeByte(STRING);
+            writeString(stringValue, out);
+        } else if (value instanceof Enum<?> enumValue) {
+            out.writeByte(ENUM);
+            writeString(enumValue.name(), out);
+        } else if (value instanceof Duration duration) {
+            out.writeByte(DURATION);
+            out.writeLong(duration.getSeconds());
+            out.writeInt(duration.getNano());
+        } else if (value instanceof boolean[] array) {
+            out.writeByte(BOOLEAN_ARRAY);
+            out.writeInt(array.length);
+            for (boolean element : array) {
+                out.writeBoolean(element);
+            }
+        } else if (value instanceof byte[] array) {
+            out.writeByte(BYTE_ARRAY);
+            out.writeInt(array.length);
+            out.write(array);
+        } else if (value instanceof short[] array) {
+            out.writeByte(SHORT_ARRAY);
+            out.writeInt(array.length);
+            for (short element : array) {
+                out.writeShort(element);
+            }
+        } else if (value instanceof int[] array) {
+            out.writeByte(INT_ARRAY);
+            out.writeInt(array.length);
+            for (int element : array) {
+                out.writeInt(element);
+            }
+        } else if (value instanceof long[] array) {
+            out.writeByte(LONG_ARRAY);
+            out.writeInt(array.length);
+            for (long element : array) {
+                out.writeLong(element);
+            }
+        } else if (value instanceof float[] array) {
+            out.writeByte(FLOAT_ARRAY);
+            out.writeInt(array.length);
+            for (float element : array) {
+                out.writeFloat(element);
+            }
+        } else if (value instanceof double[] array) {
+            out.writeByte(DOUBLE_ARRAY);
+            out.writeInt(array.length);
+            for (double element : array) {
+                out.writeDouble(element);
+            }
+        } else if (value instanceof String[] array) {
+            out.writeByte(STRING_ARRAY);
+            out.writeInt(array.length);
+            for (String element : array) {
+                writeString(element, out);
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads a tagged value. The field type is only needed for enums; a null type skips the value.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object readValue(ByteBuffer data, Class<?> fieldType) {
+        byte tag = data.get();
+        return switch (tag) {
+            case NULL -> null;
+            case BOOLEAN -> data.get() != 0;
+            case BYTE -> data.get();
+            case SHORT -> data.getShort();
+            case INT -> data.getInt();
+            case LONG -> data.getLong();
+            case FLOAT -> data.getFloat();
+            case DOUBLE -> data.getDouble();
+            case STRING -> readString(data);
+            case ENUM -> {
+                String name = readString(data);
+                yield fieldType == null ? null : Enum.valueOf((Class) fieldType, name);
+            }
+            case DURATION -> Duration.ofSeconds(data.getLong(), data.getInt());
+            case BOOLEAN_ARRAY -> {
+                boolean[] array = new boolean[data.getInt()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = data.get() != 0;
+                }
+                yield array;
+            }
+            case BYTE_ARRAY -> {
+                byte[] array = new byte[data.getInt()];
+                data.get(array);
+                yield array;
+            }
+            case SHORT_ARRAY -> {
+                short[] array = new short[data.getInt()];
+                data.asShortBuffer().get(array);
+                data.position(data.position() + array.length * Short.BYTES);
+                yield array;
+            }
+            case INT_ARRAY -> {
+                int[] array = new int[data.getInt()];
+                data.asIntBuffer().get(array);
+                data.position(data.position() + array.length * Integer.BYTES);
+                yield array;
+            }
+            case LONG_ARRAY -> {
+                long[] array = new long[data.getInt()];
+                data.asLongBuffer().get(array);
+                data.position(data.position() + array.length * Long.BYTES);
+                yield array;
+            }
+            case FLOAT_ARRAY -> {
+                float[] array = new float[data.getInt()];
+                data.asFloatBuffer().get(array);
+                data.position(data.position() + array.length * Float.BYTES);
+                yield array;
+            }
+            case DOUBLE_ARRAY -> {
+                double[] array = new double[data.getInt()];
+                data.asDoubleBuffer().get(array);
+                data.position(data.position() + array.length * Double.BYTES);
+                yield array;
+            }
+            case STRING_ARRAY -> {
+                String[] array = new String[data.getInt()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readString(data);
+                }
+                yield array;
+            }
+            default -> throw new IllegalArgumentException("Corrupt config snapshot, unknown value tag: " + tag);
+        };
+    }
+
+    private static void writeString(String value, DataOutputStream out) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(ByteBuffer data) {
+        int length = data.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] utf8 = new byte[length];
+        data.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Location and validity information of a single config file in the snapshot
+     */
+    private static final class Entry {
+
+        private final String configClassName;
+        private final String schema;
+        private final long checksum;
+        private final int dataOffset;
+
+        private Entry(String configClassName, String schema, long checksum, int dataOffset) {
+            this.configClassName = configClassName;
+            this.schema = schema;
+            this.checksum = checksum;
+            this.dataOffset = dataOffset;
+        }
+
+        /**
+         * Returns whether the field data was written for the given class with the same field names and types.
+         * A changed class would otherwise get values of the wrong type, or miss the values of added fields.
+         */
+        boolean isBindable(Class<?> configClass) {
+            return dataOffset >= 0
+                    && configClass.getName().equals(configClassName)
+                    && ConfigBinder.of(configClass).schema().equals(schema);
+        }
+
+    }
+
+}
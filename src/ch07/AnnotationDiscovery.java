@@ -94,11 +94,15 @@ public class AnnotationDiscovery {
         return initializerMethods;
     }
 
-    private static List<Class<?>> getAllClasses(String... packageNames) throws URISyntaxException, IOException {
+    /**
+     * Returns all classes of the given packages, from directories or jar files on the class path
+     */
+    public static List<Class<?>> getAllClasses(String... packageNames) throws URISyntaxException, IOException {
         List<Class<?>> allClasses = new ArrayList<>();
         for (String packageName : packageNames) {
             String relativePackagePath = packageName.replace('.', '/');
-            URI packageUri = Objects.requireNonNull(AnnotationDiscovery.class.getResource("/" + relativePackagePath)).toURI();
+            URI packageUri = Objects.requireNonNull(AnnotationDiscovery.class.getResource("/" + relativePackagePath),
+                    "Package not found: " + packageName).toURI();
             if (packageUri.getScheme().equals("file")) {
                 Path fullPackagePath = Paths.get(packageUri);
                 allClasses.addAll(getAllPackageClasses(fullPackagePath, packageName));